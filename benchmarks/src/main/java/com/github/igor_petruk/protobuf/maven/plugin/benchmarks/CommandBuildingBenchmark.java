@@ -0,0 +1,101 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin.benchmarks;
+
+import com.github.igor_petruk.protobuf.maven.plugin.ProtoSource;
+import com.github.igor_petruk.protobuf.maven.plugin.ProtoSourceScanner;
+import com.github.igor_petruk.protobuf.maven.plugin.RunMojo;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Building protoc command lines with the goal's own code, one per file as the
+ * goal does by default and split into batches that fit the command line limit.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class CommandBuildingBenchmark {
+
+    @Param({"100", "1000"})
+    public int fileCount;
+
+    private MojoFixture fixture;
+    private RunMojo mojo;
+    private List<File> files;
+    private Method buildArguments;
+    private Method createBatches;
+
+    @Setup
+    public void setUp() throws Exception {
+        fixture = new MojoFixture(new ProtoTreeGenerator(fileCount, 1, 1));
+        files = new ArrayList<File>();
+        for (ProtoSource source : new ProtoSourceScanner(new String[]{"**/*.proto"}, null).scan(fixture.getProtoDir())) {
+            files.add(source.getFile());
+        }
+        mojo = fixture.createMojo(new SyntheticDependencyTreeBuilder(1, 1, MojoFixture.PROTOBUF_VERSION));
+        MojoFixture.invoke(mojo, "resolveDefaults");
+        MojoFixture.invoke(mojo, "resolveTargets");
+        MojoFixture.invoke(mojo, "initializeCompiler");
+        buildArguments = MojoFixture.getMethod(RunMojo.class, "buildArguments",
+                File.class, Collection.class, File.class);
+        createBatches = MojoFixture.getMethod(RunMojo.class, "createBatches",
+                File.class, List.class, File.class, long.class);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.delete();
+    }
+
+    @Benchmark
+    public List<Object> perFile() throws Exception {
+        List<Object> commands = new ArrayList<Object>();
+        for (File file : files) {
+            commands.add(MojoFixture.invoke(mojo, buildArguments,
+                    fixture.getProtoDir(), Collections.singletonList(file), fixture.getOutputDir()));
+        }
+        return commands;
+    }
+
+    @Benchmark
+    public Object batched() throws Exception {
+        return MojoFixture.invoke(mojo, createBatches, fixture.getProtoDir(), files, fixture.getOutputDir(), 0L);
+    }
+}
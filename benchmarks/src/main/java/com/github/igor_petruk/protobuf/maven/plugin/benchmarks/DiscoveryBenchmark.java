@@ -0,0 +1,94 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin.benchmarks;
+
+import com.github.igor_petruk.protobuf.maven.plugin.ImportGraph;
+import com.github.igor_petruk.protobuf.maven.plugin.ProtoImportScanner;
+import com.github.igor_petruk.protobuf.maven.plugin.ProtoSource;
+import com.github.igor_petruk.protobuf.maven.plugin.ProtoSourceScanner;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the proto files of an input directory and reading their imports,
+ * which every run of the goal does before protoc is started.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class DiscoveryBenchmark {
+
+    @Param({"100", "1000"})
+    public int fileCount;
+
+    @Param({"1", "5"})
+    public int importDepth;
+
+    @Param({"20"})
+    public int messageSize;
+
+    private MojoFixture fixture;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = new MojoFixture(new ProtoTreeGenerator(fileCount, importDepth, messageSize));
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.delete();
+    }
+
+    @Benchmark
+    public List<ProtoSource> scan() throws IOException {
+        return new ProtoSourceScanner(new String[]{"**/*.proto"}, null).scan(fixture.getProtoDir());
+    }
+
+    @Benchmark
+    public ImportGraph scanAndReadImports() throws IOException {
+        ProtoImportScanner importScanner = new ProtoImportScanner();
+        List<File> files = new ArrayList<File>();
+        for (ProtoSource source : scan()) {
+            files.add(source.getFile());
+            importScanner.addKnownFile(source.getFile());
+        }
+        Map<File, List<File>> filesByInput = Collections.singletonMap(fixture.getProtoDir(), files);
+        return ImportGraph.build(importScanner, filesByInput, null);
+    }
+}
@@ -0,0 +1,93 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin.benchmarks;
+
+import com.github.igor_petruk.protobuf.maven.plugin.RunMojo;
+import org.apache.maven.plugin.MojoExecutionException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * A complete run of the goal with the stub protoc, starting protoc once per
+ * file, once per batch of files, or once per file on all cores.
+ * <p>
+ * The output directory is kept between runs, so this measures rebuilding a
+ * module whose sources were generated before. The protoc version is only
+ * probed by the first run, later runs get it from the in-memory cache.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+@State(Scope.Benchmark)
+public class ExecutionBenchmark {
+
+    @Param({"per-file", "batched", "parallel"})
+    public String mode;
+
+    @Param({"100", "500"})
+    public int fileCount;
+
+    @Param({"5"})
+    public int importDepth;
+
+    @Param({"20"})
+    public int messageSize;
+
+    private MojoFixture fixture;
+    private SyntheticDependencyTreeBuilder treeBuilder;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = new MojoFixture(new ProtoTreeGenerator(fileCount, importDepth, messageSize));
+        treeBuilder = new SyntheticDependencyTreeBuilder(50, 5, MojoFixture.PROTOBUF_VERSION);
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.delete();
+    }
+
+    @Benchmark
+    public RunMojo execute() throws MojoExecutionException {
+        RunMojo mojo = fixture.createMojo(treeBuilder);
+        if ("batched".equals(mode)) {
+            MojoFixture.set(mojo, "batch", true);
+        } else if ("parallel".equals(mode)) {
+            MojoFixture.set(mojo, "threads", "1C");
+        } else if (!"per-file".equals(mode)) {
+            throw new IllegalArgumentException("Unknown mode " + mode);
+        }
+        mojo.execute();
+        return mojo;
+    }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin.benchmarks;
+
+import com.github.igor_petruk.protobuf.maven.plugin.RunMojo;
+import org.apache.maven.model.Build;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.logging.Log;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+
+/**
+ * A throw-away project directory with a synthetic proto tree and a stub
+ * protoc, and {@link RunMojo} instances configured against it the way Maven
+ * would configure them.
+ * <p>
+ * The stub protoc is a shell script that reports a version and writes one
+ * small file per proto, so measurements include the cost of forking a
+ * process but not the cost of real code generation.
+ */
+public class MojoFixture {
+
+    public static final String PROTOBUF_VERSION = "2.5.0";
+
+    private static final Logger LOGGER = new ConsoleLogger(Logger.LEVEL_WARN, "benchmark");
+
+    private final File baseDir;
+    private final File protoDir;
+    private final File protoc;
+
+    public MojoFixture(ProtoTreeGenerator generator) throws IOException {
+        baseDir = File.createTempFile("protobuf-benchmark", "");
+        baseDir.delete();
+        protoDir = new File(baseDir, "src" + File.separator + "main" + File.separator + "protobuf");
+        protoDir.mkdirs();
+        generator.generate(protoDir);
+        protoc = new File(baseDir, "protoc");
+        writeStubProtoc(protoc);
+    }
+
+    private static void writeStubProtoc(File file) throws IOException {
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write("#!/bin/sh\n"
+                    + "if [ \"$1\" = \"--version\" ]; then\n"
+                    + "    echo \"libprotoc " + PROTOBUF_VERSION + "\"\n"
+                    + "    exit 0\n"
+                    + "fi\n"
+                    + "out=.\n"
+                    + "for arg in \"$@\"; do\n"
+                    + "    case \"$arg\" in\n"
+                    + "        --*_out=*) out=\"${arg#*_out=}\" ;;\n"
+                    + "        *.proto) name=\"${arg##*/}\"; echo \"// $arg\" > \"$out/${name%.proto}.java\" ;;\n"
+                    + "    esac\n"
+                    + "done\n");
+        } finally {
+            writer.close();
+        }
+        if (!file.setExecutable(true)) {
+            throw new IOException("Unable to make " + file + " executable");
+        }
+    }
+
+    public File getBaseDir() {
+        return baseDir;
+    }
+
+    public File getProtoDir() {
+        return protoDir;
+    }
+
+    public File getProtoc() {
+        return protoc;
+    }
+
+    public File getOutputDir() {
+        return new File(baseDir, "target" + File.separator + "generated-sources");
+    }
+
+    /**
+     * @return mojo with the default configuration of the plugin, compiling
+     * the synthetic tree with the stub protoc
+     */
+    public RunMojo createMojo(SyntheticDependencyTreeBuilder treeBuilder) {
+        MavenProject project = new MavenProject();
+        project.setFile(new File(baseDir, "pom.xml"));
+        project.setPackaging("jar");
+        Build build = new Build();
+        build.setDirectory(new File(baseDir, "target").getAbsolutePath());
+        project.getModel().setBuild(build);
+
+        DefaultBuildContext buildContext = new DefaultBuildContext();
+        buildContext.enableLogging(LOGGER);
+
+        RunMojo mojo = new RunMojo();
+        mojo.setLog(createLog());
+        set(mojo, "project", project);
+        set(mojo, "dependencyTreeBuilder", treeBuilder);
+        set(mojo, "buildContext", buildContext);
+        set(mojo, "inputDirectories", new File[]{protoDir});
+        set(mojo, "includeDirectories", new File[0]);
+        set(mojo, "outputDirectory", getOutputDir());
+        set(mojo, "extension", ".proto");
+        set(mojo, "addSources", "main");
+        set(mojo, "cleanOutputFolder", true);
+        set(mojo, "javaOutput", true);
+        set(mojo, "protocCommand", protoc.getAbsolutePath());
+        set(mojo, "compilerBackend", "native");
+        set(mojo, "threads", "1");
+        set(mojo, "protobufGroupId", SyntheticDependencyTreeBuilder.PROTOBUF_GROUP_ID);
+        set(mojo, "protobufArtifactId", SyntheticDependencyTreeBuilder.PROTOBUF_ARTIFACT_ID);
+        set(mojo, "protobufVersionValidationStrategy", "minor");
+        return mojo;
+    }
+
+    public static Log createLog() {
+        return new DefaultLog(LOGGER);
+    }
+
+    /**
+     * Sets a mojo parameter like Maven does, bypassing the access modifiers.
+     */
+    public static void set(Object target, String name, Object value) {
+        try {
+            Field field = target.getClass().getDeclaredField(name);
+            field.setAccessible(true);
+            field.set(target, value);
+        } catch (NoSuchFieldException e) {
+            throw new IllegalArgumentException("Unknown parameter " + name, e);
+        } catch (IllegalAccessException e) {
+            throw new IllegalArgumentException("Unable to set parameter " + name, e);
+        }
+    }
+
+    /**
+     * Invokes a private method of the mojo without arguments, to measure a
+     * single stage of the goal.
+     */
+    public static Object invoke(Object target, String name) throws Exception {
+        return invoke(target, getMethod(target.getClass(), name));
+    }
+
+    /**
+     * @return private method of the mojo made accessible, to be looked up
+     * once and invoked repeatedly
+     */
+    public static Method getMethod(Class<?> type, String name, Class<?>... parameterTypes)
+            throws NoSuchMethodException {
+        Method method = type.getDeclaredMethod(name, parameterTypes);
+        method.setAccessible(true);
+        return method;
+    }
+
+    public static Object invoke(Object target, Method method, Object... args) throws Exception {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof Exception) {
+                throw (Exception) e.getCause();
+            }
+            throw e;
+        }
+    }
+
+    public void delete() {
+        ProtoTreeGenerator.delete(baseDir);
+    }
+}
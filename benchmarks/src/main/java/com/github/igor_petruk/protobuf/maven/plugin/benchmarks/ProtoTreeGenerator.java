@@ -0,0 +1,98 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin.benchmarks;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+
+/**
+ * Writes a synthetic tree of proto files. Files are spread over a few
+ * packages and form import chains of the given depth, every file declares
+ * one message that refers to the message of the file it imports.
+ */
+public class ProtoTreeGenerator {
+
+    private static final int PACKAGES = 10;
+
+    private final int fileCount;
+    private final int importDepth;
+    private final int messageSize;
+
+    /**
+     * @param fileCount number of proto files
+     * @param importDepth length of the import chains, 1 means no imports
+     * @param messageSize number of scalar fields in every message
+     */
+    public ProtoTreeGenerator(int fileCount, int importDepth, int messageSize) {
+        this.fileCount = fileCount;
+        this.importDepth = Math.max(1, importDepth);
+        this.messageSize = messageSize;
+    }
+
+    public static String getPath(int index) {
+        return "pkg" + (index % PACKAGES) + "/file" + index + ".proto";
+    }
+
+    public void generate(File root) throws IOException {
+        for (int i = 0; i < fileCount; i++) {
+            File file = new File(root, getPath(i).replace('/', File.separatorChar));
+            file.getParentFile().mkdirs();
+            Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+            try {
+                writer.write(render(i));
+            } finally {
+                writer.close();
+            }
+        }
+    }
+
+    private String render(int index) {
+        StringBuilder text = new StringBuilder();
+        text.append("package bench.pkg").append(index % PACKAGES).append(";\n\n");
+        text.append("option java_outer_classname = \"File").append(index).append("Proto\";\n\n");
+        boolean imports = index % importDepth != 0;
+        if (imports) {
+            text.append("import \"").append(getPath(index - 1)).append("\";\n\n");
+        }
+        text.append("message Message").append(index).append(" {\n");
+        int tag = 1;
+        if (imports) {
+            text.append("    optional bench.pkg").append((index - 1) % PACKAGES)
+                    .append(".Message").append(index - 1).append(" parent = ").append(tag++).append(";\n");
+        }
+        for (int field = 0; field < messageSize; field++) {
+            text.append("    optional ").append(field % 2 == 0 ? "string" : "int64")
+                    .append(" field").append(field).append(" = ").append(tag++).append(";\n");
+        }
+        text.append("}\n");
+        return text.toString();
+    }
+
+    public static void delete(File file) {
+        File[] children = file.listFiles();
+        if (children != null) {
+            for (File child : children) {
+                delete(child);
+            }
+        }
+        file.delete();
+    }
+}
@@ -0,0 +1,116 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin.benchmarks;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.factory.ArtifactFactory;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
+import org.apache.maven.artifact.repository.ArtifactRepository;
+import org.apache.maven.artifact.resolver.ArtifactCollector;
+import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.project.MavenProject;
+import org.apache.maven.shared.dependency.tree.DependencyNode;
+import org.apache.maven.shared.dependency.tree.DependencyTree;
+import org.apache.maven.shared.dependency.tree.DependencyTreeBuilder;
+
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * Dependency tree builder that returns a synthetic tree instead of resolving
+ * anything, so that the version lookup can be measured without a repository.
+ * The protobuf library is the last node, which is the worst case for the lookup.
+ */
+public class SyntheticDependencyTreeBuilder implements DependencyTreeBuilder {
+
+    public static final String PROTOBUF_GROUP_ID = "com.google.protobuf";
+    public static final String PROTOBUF_ARTIFACT_ID = "protobuf-java";
+
+    private final int nodeCount;
+    private final int fanOut;
+    private final String protobufVersion;
+
+    /**
+     * @param nodeCount number of dependencies in the tree, including protobuf
+     * @param fanOut maximum number of children of a node
+     */
+    public SyntheticDependencyTreeBuilder(int nodeCount, int fanOut, String protobufVersion) {
+        this.nodeCount = nodeCount;
+        this.fanOut = Math.max(1, fanOut);
+        this.protobufVersion = protobufVersion;
+    }
+
+    public static Artifact createArtifact(String groupId, String artifactId, String version) {
+        return new DefaultArtifact(groupId, artifactId, VersionRange.createFromVersion(version),
+                Artifact.SCOPE_COMPILE, "jar", null, new DefaultArtifactHandler("jar"));
+    }
+
+    /**
+     * @return the dependencies of the tree in resolution order, like
+     * MavenProject.getArtifacts() returns them
+     */
+    public Set<Artifact> createArtifacts() {
+        Set<Artifact> artifacts = new LinkedHashSet<Artifact>();
+        for (int i = 1; i < nodeCount; i++) {
+            artifacts.add(createDependency(i));
+        }
+        artifacts.add(createArtifact(PROTOBUF_GROUP_ID, PROTOBUF_ARTIFACT_ID, protobufVersion));
+        return artifacts;
+    }
+
+    public DependencyNode createTree() {
+        DependencyNode root = new DependencyNode(createArtifact("bench", "project", "1.0"));
+        List<DependencyNode> parents = new ArrayList<DependencyNode>();
+        parents.add(root);
+        int parentIndex = 0;
+        for (int i = 1; i <= nodeCount; i++) {
+            Artifact artifact = i == nodeCount
+                    ? createArtifact(PROTOBUF_GROUP_ID, PROTOBUF_ARTIFACT_ID, protobufVersion)
+                    : createDependency(i);
+            DependencyNode node = new DependencyNode(artifact);
+            DependencyNode parent = parents.get(parentIndex);
+            parent.addChild(node);
+            if (parent.getChildren().size() == fanOut) {
+                parentIndex++;
+            }
+            parents.add(node);
+        }
+        return root;
+    }
+
+    private static Artifact createDependency(int index) {
+        return createArtifact("bench.group" + (index % 7), "dependency" + index, "1." + index);
+    }
+
+    public DependencyTree buildDependencyTree(MavenProject project, ArtifactRepository repository,
+            ArtifactFactory factory, ArtifactMetadataSource metadataSource, ArtifactCollector collector) {
+        DependencyNode root = createTree();
+        return new DependencyTree(root, root.getChildren());
+    }
+
+    public DependencyNode buildDependencyTree(MavenProject project, ArtifactRepository repository,
+            ArtifactFactory factory, ArtifactMetadataSource metadataSource, ArtifactFilter filter,
+            ArtifactCollector collector) {
+        return createTree();
+    }
+}
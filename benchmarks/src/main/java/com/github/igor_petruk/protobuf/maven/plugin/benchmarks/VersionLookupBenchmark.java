@@ -0,0 +1,91 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin.benchmarks;
+
+import com.github.igor_petruk.protobuf.maven.plugin.NativeProtocBackend;
+import com.github.igor_petruk.protobuf.maven.plugin.ProtocResult;
+import com.github.igor_petruk.protobuf.maven.plugin.RunMojo;
+import org.apache.maven.project.MavenProject;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Finding the protobuf library version among the dependencies, either in the
+ * artifacts Maven already resolved or by building the dependency tree, and
+ * asking protoc for its version.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@State(Scope.Benchmark)
+public class VersionLookupBenchmark {
+
+    @Param({"50", "500"})
+    public int dependencies;
+
+    @Param({"true", "false"})
+    public boolean resolved;
+
+    private MojoFixture fixture;
+    private RunMojo mojo;
+
+    @Setup
+    public void setUp() throws IOException {
+        fixture = new MojoFixture(new ProtoTreeGenerator(1, 1, 1));
+        SyntheticDependencyTreeBuilder treeBuilder =
+                new SyntheticDependencyTreeBuilder(dependencies, 5, MojoFixture.PROTOBUF_VERSION);
+        mojo = fixture.createMojo(treeBuilder);
+        if (resolved) {
+            MavenProject project = new MavenProject();
+            project.setArtifacts(treeBuilder.createArtifacts());
+            MojoFixture.set(mojo, "project", project);
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        fixture.delete();
+    }
+
+    @Benchmark
+    public Object dependencyLookup() throws Exception {
+        return MojoFixture.invoke(mojo, "getProtobufVersion");
+    }
+
+    @Benchmark
+    public ProtocResult versionProbe() throws Exception {
+        return new NativeProtocBackend(fixture.getProtoc().getAbsolutePath())
+                .execute(Collections.singletonList("--version"));
+    }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Compares proto files with a baseline descriptor set and reports changes that
+ * break existing clients: removed types, fields, enum values, services and
+ * methods, and fields whose number now has a different name, type or label.
+ * Removing a field or enum value is fine if its number is reserved.
+ */
+public class BreakingChangeDetector {
+
+    /**
+     * An element found in a descriptor set, with the file it is declared in.
+     */
+    private static class Declaration<T> {
+        final T element;
+        final FileDescriptorProto file;
+        final List<Integer> path;
+
+        Declaration(T element, FileDescriptorProto file, List<Integer> path) {
+            this.element = element;
+            this.file = file;
+            this.path = path;
+        }
+
+        ProtocDiagnostic diagnose(String message) {
+            return new DescriptorLocations(file).diagnose(path, message, false);
+        }
+    }
+
+    private final Map<String, Declaration<DescriptorProto>> messages = new HashMap<String, Declaration<DescriptorProto>>();
+    private final Map<String, Declaration<EnumDescriptorProto>> enums = new HashMap<String, Declaration<EnumDescriptorProto>>();
+    private final Map<String, Declaration<ServiceDescriptorProto>> services = new HashMap<String, Declaration<ServiceDescriptorProto>>();
+
+    /**
+     * @param current the proto files as they are now
+     */
+    public BreakingChangeDetector(Collection<FileDescriptorProto> current) {
+        index(current, messages, enums, services);
+    }
+
+    public List<ProtocDiagnostic> compare(Collection<FileDescriptorProto> baseline) {
+        Map<String, Declaration<DescriptorProto>> oldMessages = new HashMap<String, Declaration<DescriptorProto>>();
+        Map<String, Declaration<EnumDescriptorProto>> oldEnums = new HashMap<String, Declaration<EnumDescriptorProto>>();
+        Map<String, Declaration<ServiceDescriptorProto>> oldServices = new HashMap<String, Declaration<ServiceDescriptorProto>>();
+        index(baseline, oldMessages, oldEnums, oldServices);
+
+        List<ProtocDiagnostic> diagnostics = new ArrayList<ProtocDiagnostic>();
+        for (Map.Entry<String, Declaration<DescriptorProto>> entry : oldMessages.entrySet()) {
+            Declaration<DescriptorProto> message = messages.get(entry.getKey());
+            if (message == null) {
+                diagnostics.add(entry.getValue().diagnose("Message \"" + entry.getKey() + "\" was removed"));
+            } else {
+                compareFields(entry.getKey(), entry.getValue().element, message, diagnostics);
+            }
+        }
+        for (Map.Entry<String, Declaration<EnumDescriptorProto>> entry : oldEnums.entrySet()) {
+            Declaration<EnumDescriptorProto> enumType = enums.get(entry.getKey());
+            if (enumType == null) {
+                diagnostics.add(entry.getValue().diagnose("Enum \"" + entry.getKey() + "\" was removed"));
+            } else {
+                compareValues(entry.getKey(), entry.getValue().element, enumType, diagnostics);
+            }
+        }
+        for (Map.Entry<String, Declaration<ServiceDescriptorProto>> entry : oldServices.entrySet()) {
+            Declaration<ServiceDescriptorProto> service = services.get(entry.getKey());
+            if (service == null) {
+                diagnostics.add(entry.getValue().diagnose("Service \"" + entry.getKey() + "\" was removed"));
+            } else {
+                compareMethods(entry.getKey(), entry.getValue().element, service, diagnostics);
+            }
+        }
+        return diagnostics;
+    }
+
+    private void compareFields(String name, DescriptorProto old, Declaration<DescriptorProto> current,
+            List<ProtocDiagnostic> diagnostics) {
+        Map<Integer, Integer> fieldIndexes = new HashMap<Integer, Integer>();
+        for (int i = 0; i < current.element.getFieldCount(); i++) {
+            fieldIndexes.put(current.element.getField(i).getNumber(), i);
+        }
+        for (FieldDescriptorProto oldField : old.getFieldList()) {
+            Integer index = fieldIndexes.get(oldField.getNumber());
+            String field = name + "." + oldField.getName() + " = " + oldField.getNumber();
+            if (index == null) {
+                if (!isReserved(current.element, oldField.getNumber())) {
+                    diagnostics.add(current.diagnose("Field \"" + field + "\" was removed without reserving its number"));
+                }
+                continue;
+            }
+            FieldDescriptorProto newField = current.element.getField(index);
+            String problem = null;
+            if (!oldField.getName().equals(newField.getName())) {
+                problem = "was renamed to \"" + newField.getName() + "\"";
+            } else if (oldField.getType() != newField.getType()
+                    || !oldField.getTypeName().equals(newField.getTypeName())) {
+                problem = "changed its type";
+            } else if (oldField.getLabel() != newField.getLabel()) {
+                problem = "changed from " + label(oldField) + " to " + label(newField);
+            }
+            if (problem != null) {
+                diagnostics.add(new Declaration<FieldDescriptorProto>(newField, current.file,
+                        DescriptorValidator.path(current.path, DescriptorLocations.MESSAGE_FIELD, index))
+                        .diagnose("Field \"" + field + "\" " + problem));
+            }
+        }
+    }
+
+    private static boolean isReserved(DescriptorProto message, int number) {
+        for (DescriptorProto.ReservedRange range : message.getReservedRangeList()) {
+            // The end of a reserved range is exclusive
+            if (number >= range.getStart() && number < range.getEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static String label(FieldDescriptorProto field) {
+        return field.getLabel().name().substring("LABEL_".length()).toLowerCase();
+    }
+
+    private void compareValues(String name, EnumDescriptorProto old, Declaration<EnumDescriptorProto> current,
+            List<ProtocDiagnostic> diagnostics) {
+        for (EnumValueDescriptorProto oldValue : old.getValueList()) {
+            boolean found = false;
+            for (EnumValueDescriptorProto value : current.element.getValueList()) {
+                found |= value.getNumber() == oldValue.getNumber();
+            }
+            if (!found && !isReserved(current.element, oldValue.getNumber())) {
+                diagnostics.add(current.diagnose("Enum value \"" + name + "." + oldValue.getName() + " = "
+                        + oldValue.getNumber() + "\" was removed without reserving its number"));
+            }
+        }
+    }
+
+    private static boolean isReserved(EnumDescriptorProto enumType, int number) {
+        for (EnumDescriptorProto.EnumReservedRange range : enumType.getReservedRangeList()) {
+            // Unlike for messages, the end of an enum reserved range is inclusive
+            if (number >= range.getStart() && number <= range.getEnd()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private void compareMethods(String name, ServiceDescriptorProto old, Declaration<ServiceDescriptorProto> current,
+            List<ProtocDiagnostic> diagnostics) {
+        for (MethodDescriptorProto oldMethod : old.getMethodList()) {
+            MethodDescriptorProto method = null;
+            int index = -1;
+            for (int i = 0; i < current.element.getMethodCount(); i++) {
+                if (current.element.getMethod(i).getName().equals(oldMethod.getName())) {
+                    method = current.element.getMethod(i);
+                    index = i;
+                }
+            }
+            String qualified = name + "." + oldMethod.getName();
+            if (method == null) {
+                diagnostics.add(current.diagnose("Method \"" + qualified + "\" was removed"));
+            } else if (!method.getInputType().equals(oldMethod.getInputType())
+                    || !method.getOutputType().equals(oldMethod.getOutputType())
+                    || method.getClientStreaming() != oldMethod.getClientStreaming()
+                    || method.getServerStreaming() != oldMethod.getServerStreaming()) {
+                diagnostics.add(new Declaration<MethodDescriptorProto>(method, current.file,
+                        DescriptorValidator.path(current.path, DescriptorLocations.SERVICE_METHOD, index))
+                        .diagnose("Method \"" + qualified + "\" changed its request or response"));
+            }
+        }
+    }
+
+    private static void index(Collection<FileDescriptorProto> files,
+            Map<String, Declaration<DescriptorProto>> messages,
+            Map<String, Declaration<EnumDescriptorProto>> enums,
+            Map<String, Declaration<ServiceDescriptorProto>> services) {
+        for (FileDescriptorProto file : files) {
+            String scope = file.getPackage();
+            for (int i = 0; i < file.getMessageTypeCount(); i++) {
+                indexMessage(file, scope, file.getMessageType(i),
+                        DescriptorValidator.path(DescriptorLocations.FILE_MESSAGE, i), messages, enums);
+            }
+            for (int i = 0; i < file.getEnumTypeCount(); i++) {
+                EnumDescriptorProto enumType = file.getEnumType(i);
+                enums.put(DescriptorValidator.qualify(scope, enumType.getName()), new Declaration<EnumDescriptorProto>(
+                        enumType, file, DescriptorValidator.path(DescriptorLocations.FILE_ENUM, i)));
+            }
+            for (int i = 0; i < file.getServiceCount(); i++) {
+                ServiceDescriptorProto service = file.getService(i);
+                services.put(DescriptorValidator.qualify(scope, service.getName()), new Declaration<ServiceDescriptorProto>(
+                        service, file, DescriptorValidator.path(DescriptorLocations.FILE_SERVICE, i)));
+            }
+        }
+    }
+
+    private static void indexMessage(FileDescriptorProto file, String scope, DescriptorProto message,
+            List<Integer> path, Map<String, Declaration<DescriptorProto>> messages,
+            Map<String, Declaration<EnumDescriptorProto>> enums) {
+        String name = DescriptorValidator.qualify(scope, message.getName());
+        messages.put(name, new Declaration<DescriptorProto>(message, file, path));
+        for (int i = 0; i < message.getNestedTypeCount(); i++) {
+            indexMessage(file, name, message.getNestedType(i),
+                    DescriptorValidator.path(path, DescriptorLocations.MESSAGE_NESTED, i), messages, enums);
+        }
+        for (int i = 0; i < message.getEnumTypeCount(); i++) {
+            EnumDescriptorProto enumType = message.getEnumType(i);
+            enums.put(DescriptorValidator.qualify(name, enumType.getName()), new Declaration<EnumDescriptorProto>(
+                    enumType, file, DescriptorValidator.path(path, DescriptorLocations.MESSAGE_ENUM, i)));
+        }
+    }
+}
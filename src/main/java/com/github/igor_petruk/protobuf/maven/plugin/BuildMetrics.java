@@ -0,0 +1,136 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Timings of a single plugin execution: time spent in every phase, duration
+ * of every protoc run and how many files were generated or skipped.
+ */
+public class BuildMetrics {
+
+    private final Map<String, Long> phases = new LinkedHashMap<String, Long>();
+    private final List<Long> invocations = new ArrayList<Long>();
+    private int totalFiles;
+    private int generatedFiles;
+
+    public static long now() {
+        return System.nanoTime();
+    }
+
+    /**
+     * Adds the time passed since start to the phase.
+     */
+    public synchronized void recordPhase(String phase, long start) {
+        long elapsed = now() - start;
+        Long previous = phases.get(phase);
+        phases.put(phase, previous == null ? elapsed : previous + elapsed);
+    }
+
+    public synchronized void recordInvocation(long start) {
+        invocations.add(now() - start);
+    }
+
+    public synchronized void recordFiles(int total, int generated) {
+        totalFiles += total;
+        generatedFiles += generated;
+    }
+
+    public synchronized Map<String, Long> getPhases() {
+        return new LinkedHashMap<String, Long>(phases);
+    }
+
+    public synchronized List<Long> getInvocations() {
+        List<Long> sorted = new ArrayList<Long>(invocations);
+        Collections.sort(sorted);
+        return sorted;
+    }
+
+    /**
+     * @return nearest-rank percentile of the sorted durations, 0 if there are none
+     */
+    public static long percentile(List<Long> sorted, int percent) {
+        if (sorted.isEmpty()) {
+            return 0;
+        }
+        int rank = (int) Math.ceil(percent / 100.0 * sorted.size());
+        return sorted.get(Math.max(0, rank - 1));
+    }
+
+    public void logSummary(Log log) {
+        log.info("Timings:");
+        for (Map.Entry<String, Long> phase : getPhases().entrySet()) {
+            log.info("    " + phase.getKey() + ": " + millis(phase.getValue()) + " ms");
+        }
+        List<Long> sorted = getInvocations();
+        if (!sorted.isEmpty()) {
+            log.info("    protoc runs: " + sorted.size()
+                    + ", p50 " + millis(percentile(sorted, 50)) + " ms"
+                    + ", p95 " + millis(percentile(sorted, 95)) + " ms"
+                    + ", max " + millis(sorted.get(sorted.size() - 1)) + " ms");
+        }
+        synchronized (this) {
+            log.info("    files: " + generatedFiles + " generated, " + (totalFiles - generatedFiles) + " skipped");
+        }
+    }
+
+    public void writeJson(File file) throws IOException {
+        List<Long> sorted = getInvocations();
+        StringBuilder json = new StringBuilder("{\n  \"phases\": {");
+        boolean first = true;
+        for (Map.Entry<String, Long> phase : getPhases().entrySet()) {
+            json.append(first ? "\n" : ",\n");
+            json.append("    \"").append(phase.getKey()).append("\": ").append(millis(phase.getValue()));
+            first = false;
+        }
+        json.append("\n  },\n  \"protoc\": {\n");
+        json.append("    \"runs\": ").append(sorted.size()).append(",\n");
+        json.append("    \"p50\": ").append(millis(percentile(sorted, 50))).append(",\n");
+        json.append("    \"p95\": ").append(millis(percentile(sorted, 95))).append(",\n");
+        json.append("    \"max\": ").append(millis(sorted.isEmpty() ? 0 : sorted.get(sorted.size() - 1))).append("\n");
+        synchronized (this) {
+            json.append("  },\n  \"files\": {\n");
+            json.append("    \"generated\": ").append(generatedFiles).append(",\n");
+            json.append("    \"skipped\": ").append(totalFiles - generatedFiles).append("\n");
+        }
+        json.append("  }\n}\n");
+        file.getParentFile().mkdirs();
+        Writer writer = new OutputStreamWriter(new FileOutputStream(file), "UTF-8");
+        try {
+            writer.write(json.toString());
+        } finally {
+            writer.close();
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.ROOT, "%.1f", nanos / 1000000.0);
+    }
+}
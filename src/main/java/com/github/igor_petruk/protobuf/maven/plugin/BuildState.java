@@ -0,0 +1,237 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * State of the previous successful generation, stored under the build directory.
+ * It remembers the configuration the sources were generated with, a fingerprint
+ * of every proto file and which generated files every protoc run produced.
+ * Each plugin execution keeps its own state, so executions that share an output
+ * directory only ever delete their own files.
+ */
+public class BuildState {
+
+    public static final String EXTENSION = ".state";
+
+    private static final String EXECUTION = "execution";
+    private static final String CONFIGURATION = "configuration";
+    private static final String FINGERPRINT_PREFIX = "fingerprint.";
+    private static final String UNIT_PREFIX = "unit.";
+    private static final String SOURCES_SUFFIX = ".sources";
+    private static final String OUTPUTS_SUFFIX = ".outputs";
+    private static final String GENERATORS_SUFFIX = ".generators";
+    private static final String SEPARATOR = "|";
+
+    /**
+     * Absolute paths of the proto files and the generated files of a single protoc run.
+     */
+    public static class Unit {
+        private final List<String> sources;
+        private final List<String> outputs;
+        private final List<String> generators;
+
+        /**
+         * @param generators name of the generator of every output, in the same order
+         */
+        public Unit(List<String> sources, List<String> outputs, List<String> generators) {
+            this.sources = sources;
+            this.outputs = outputs;
+            this.generators = generators;
+        }
+
+        public List<String> getSources() {
+            return sources;
+        }
+
+        public List<String> getOutputs() {
+            return outputs;
+        }
+
+        /**
+         * @return generator of the output with the given index, null if it is not known
+         */
+        public String getGenerator(int index) {
+            return index < generators.size() ? generators.get(index) : null;
+        }
+    }
+
+    private final String executionId;
+    private final String configuration;
+    private final Map<String, String> fingerprints = new HashMap<String, String>();
+    private final List<Unit> units = new ArrayList<Unit>();
+
+    public BuildState(String executionId, String configuration) {
+        this.executionId = executionId;
+        this.configuration = configuration;
+    }
+
+    /**
+     * @return id of the plugin execution the state belongs to, null for states of older versions
+     */
+    public String getExecutionId() {
+        return executionId;
+    }
+
+    public String getConfiguration() {
+        return configuration;
+    }
+
+    public Map<String, String> getFingerprints() {
+        return fingerprints;
+    }
+
+    public List<Unit> getUnits() {
+        return units;
+    }
+
+    /**
+     * @return loaded state or null if there is no readable state file
+     */
+    public static BuildState load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return null;
+        }
+        BuildState state = new BuildState(properties.getProperty(EXECUTION),
+                properties.getProperty(CONFIGURATION, ""));
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(FINGERPRINT_PREFIX)) {
+                state.fingerprints.put(key.substring(FINGERPRINT_PREFIX.length()), properties.getProperty(key));
+            }
+        }
+        for (int i = 0; properties.containsKey(UNIT_PREFIX + i + SOURCES_SUFFIX); i++) {
+            state.units.add(new Unit(
+                    split(properties.getProperty(UNIT_PREFIX + i + SOURCES_SUFFIX)),
+                    split(properties.getProperty(UNIT_PREFIX + i + OUTPUTS_SUFFIX, "")),
+                    split(properties.getProperty(UNIT_PREFIX + i + GENERATORS_SUFFIX, ""))));
+        }
+        return state;
+    }
+
+    /**
+     * Loads the states of other executions of the same project.
+     * @param directory directory with the state files
+     * @param exclude state of the current execution
+     * @return states keyed by their file
+     */
+    public static Map<File, BuildState> loadOthers(File directory, File exclude) {
+        Map<File, BuildState> states = new TreeMap<File, BuildState>();
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return states;
+        }
+        for (File file : files) {
+            if (!file.getName().endsWith(EXTENSION) || file.equals(exclude)) {
+                continue;
+            }
+            BuildState state = load(file);
+            if (state != null) {
+                states.put(file, state);
+            }
+        }
+        return states;
+    }
+
+    /**
+     * @return absolute paths of the generated files of all units
+     */
+    public Set<String> getOutputs() {
+        Set<String> outputs = new HashSet<String>();
+        for (Unit unit : units) {
+            outputs.addAll(unit.getOutputs());
+        }
+        return outputs;
+    }
+
+    /**
+     * @return absolute paths of the proto files of all units
+     */
+    public Set<String> getSources() {
+        Set<String> sources = new HashSet<String>();
+        for (Unit unit : units) {
+            sources.addAll(unit.getSources());
+        }
+        return sources;
+    }
+
+    public void save(File file) throws IOException {
+        Properties properties = new Properties();
+        if (executionId != null) {
+            properties.setProperty(EXECUTION, executionId);
+        }
+        properties.setProperty(CONFIGURATION, configuration);
+        for (Map.Entry<String, String> entry : fingerprints.entrySet()) {
+            properties.setProperty(FINGERPRINT_PREFIX + entry.getKey(), entry.getValue());
+        }
+        for (int i = 0; i < units.size(); i++) {
+            properties.setProperty(UNIT_PREFIX + i + SOURCES_SUFFIX, join(units.get(i).getSources()));
+            properties.setProperty(UNIT_PREFIX + i + OUTPUTS_SUFFIX, join(units.get(i).getOutputs()));
+            properties.setProperty(UNIT_PREFIX + i + GENERATORS_SUFFIX, join(units.get(i).generators));
+        }
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "protobuf-maven-plugin build state");
+        } finally {
+            out.close();
+        }
+    }
+
+    private static List<String> split(String value) {
+        if (value.length() == 0) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(Arrays.asList(value.split("\\" + SEPARATOR)));
+    }
+
+    private static String join(List<String> values) {
+        StringBuilder builder = new StringBuilder();
+        for (String value : values) {
+            if (builder.length() > 0) {
+                builder.append(SEPARATOR);
+            }
+            builder.append(value);
+        }
+        return builder.toString();
+    }
+}
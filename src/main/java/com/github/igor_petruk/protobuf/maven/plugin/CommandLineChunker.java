@@ -0,0 +1,75 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * Splits a list of files into chunks, so that every protoc command line
+ * built from a chunk stays below the given length.
+ */
+public class CommandLineChunker {
+
+    /**
+     * Windows limits a command line to 32767 characters, other platforms
+     * allow much more. Leave some headroom for quoting.
+     */
+    public static final int DEFAULT_MAX_LENGTH = 30000;
+
+    private final int maxLength;
+
+    public CommandLineChunker(int maxLength) {
+        this.maxLength = maxLength;
+    }
+
+    public static int length(Collection<String> args) {
+        int length = 0;
+        for (String arg : args) {
+            length += arg.length() + 1;
+        }
+        return length;
+    }
+
+    /**
+     * @param baseArgs arguments that are repeated in every command
+     * @param files files to distribute among the commands
+     * @return chunks of files, each chunk has at least one file
+     */
+    public List<List<File>> chunk(Collection<String> baseArgs, List<File> files) {
+        List<List<File>> chunks = new ArrayList<List<File>>();
+        int baseLength = length(baseArgs);
+        List<File> current = new ArrayList<File>();
+        int currentLength = baseLength;
+        for (File file : files) {
+            int fileLength = file.toString().length() + 1;
+            if (!current.isEmpty() && currentLength + fileLength > maxLength) {
+                chunks.add(current);
+                current = new ArrayList<File>();
+                currentLength = baseLength;
+            }
+            current.add(file);
+            currentLength += fileLength;
+        }
+        if (!current.isEmpty()) {
+            chunks.add(current);
+        }
+        return chunks;
+    }
+}
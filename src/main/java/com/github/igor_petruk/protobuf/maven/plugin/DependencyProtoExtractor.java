@@ -0,0 +1,142 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import org.codehaus.plexus.util.FileUtils;
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Enumeration;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * Extracts proto files from dependency jars into a cache directory shared by
+ * all builds on the machine. Every jar is extracted into a directory named after
+ * its checksum, so a jar is only opened once no matter how many modules use it.
+ * Checksums are kept in an index by path, size and modification time of the jar,
+ * so an unchanged jar is not read again either.
+ */
+public class DependencyProtoExtractor {
+
+    private static final String COMPLETE_MARKER = ".complete";
+    private static final String EMPTY_MARKER = ".empty";
+    private static final String INDEX_DIRECTORY = "index";
+
+    private final File cacheDirectory;
+    private final String extension;
+
+    public DependencyProtoExtractor(File cacheDirectory, String extension) {
+        this.cacheDirectory = cacheDirectory;
+        this.extension = extension;
+    }
+
+    /**
+     * @return directory with the proto files of the jar, or null if it has none
+     */
+    public File extract(File jar) throws IOException {
+        File target = new File(cacheDirectory, checksum(jar));
+        if (!new File(target, COMPLETE_MARKER).isFile()) {
+            File temp = new File(cacheDirectory, target.getName() + "-" + UUID.randomUUID() + ".tmp");
+            try {
+                extractTo(jar, temp);
+                if (!temp.renameTo(target) && !new File(target, COMPLETE_MARKER).isFile()) {
+                    throw new IOException("Unable to move " + temp + " to " + target);
+                }
+            } finally {
+                if (temp.exists()) {
+                    FileUtils.deleteDirectory(temp);
+                }
+            }
+        }
+        return new File(target, EMPTY_MARKER).isFile() ? null : target;
+    }
+
+    private void extractTo(File jar, File directory) throws IOException {
+        if (!directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        boolean found = false;
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Enumeration<? extends ZipEntry> entries = zip.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                if (entry.isDirectory() || !entry.getName().endsWith(extension)) {
+                    continue;
+                }
+                File file = new File(directory, entry.getName());
+                if (!file.getCanonicalPath().startsWith(directory.getCanonicalPath() + File.separator)) {
+                    throw new IOException("Entry " + entry.getName() + " of " + jar + " is outside of the jar root");
+                }
+                file.getParentFile().mkdirs();
+                InputStream in = zip.getInputStream(entry);
+                try {
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        IOUtil.copy(in, out);
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    in.close();
+                }
+                found = true;
+            }
+        } finally {
+            zip.close();
+        }
+        if (!found) {
+            new File(directory, EMPTY_MARKER).createNewFile();
+        }
+        new File(directory, COMPLETE_MARKER).createNewFile();
+    }
+
+    /**
+     * Hashes the jar itself unless the index knows it. The .sha1 file next to it
+     * can not be trusted, a locally installed SNAPSHOT replaces the jar without
+     * updating it.
+     */
+    String checksum(File jar) throws IOException {
+        File index = new File(cacheDirectory, INDEX_DIRECTORY);
+        File entry = new File(index, Digests.digest(jar.getAbsolutePath() + "|" + jar.length() + "|" + jar.lastModified()));
+        if (entry.isFile()) {
+            String checksum = FileUtils.fileRead(entry, "UTF-8").trim();
+            if (checksum.length() > 0) {
+                return checksum;
+            }
+        }
+        String checksum = Digests.digest(jar);
+        if (!index.isDirectory() && !index.mkdirs()) {
+            throw new IOException("Unable to create " + index);
+        }
+        File temp = File.createTempFile(entry.getName(), ".tmp", index);
+        try {
+            FileUtils.fileWrite(temp.getAbsolutePath(), "UTF-8", checksum);
+            // Another build may have indexed the same jar meanwhile, with the same checksum
+            temp.renameTo(entry);
+        } finally {
+            temp.delete();
+        }
+        return checksum;
+    }
+}
@@ -0,0 +1,69 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.SourceCodeInfo;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Looks up where an element of a parsed proto file is declared, using the
+ * source info protoc adds with --include_source_info. An element is identified
+ * by its path of field numbers and indexes in the descriptor, for example
+ * {4, 0, 2, 1} is the second field of the first message.
+ */
+public class DescriptorLocations {
+
+    public static final int FILE_MESSAGE = 4;
+    public static final int FILE_ENUM = 5;
+    public static final int FILE_SERVICE = 6;
+    public static final int MESSAGE_FIELD = 2;
+    public static final int MESSAGE_NESTED = 3;
+    public static final int MESSAGE_ENUM = 4;
+    public static final int MESSAGE_ONEOF = 8;
+    public static final int ENUM_VALUE = 2;
+    public static final int SERVICE_METHOD = 2;
+
+    private final String file;
+    private final Map<String, SourceCodeInfo.Location> locations = new HashMap<String, SourceCodeInfo.Location>();
+
+    public DescriptorLocations(FileDescriptorProto file) {
+        this.file = file.getName();
+        for (SourceCodeInfo.Location location : file.getSourceCodeInfo().getLocationList()) {
+            String key = location.getPathList().toString();
+            if (!locations.containsKey(key)) {
+                locations.put(key, location);
+            }
+        }
+    }
+
+    /**
+     * @return diagnostic pointing at the element, or at the file if the position is unknown
+     */
+    public ProtocDiagnostic diagnose(List<Integer> path, String message, boolean warning) {
+        SourceCodeInfo.Location location = locations.get(path.toString());
+        if (location == null || location.getSpanCount() < 2) {
+            return new ProtocDiagnostic(file, 0, 0, message, warning);
+        }
+        // Spans are zero based, protoc prints one based positions
+        return new ProtocDiagnostic(file, location.getSpan(0) + 1, location.getSpan(1) + 1, message, warning);
+    }
+}
@@ -0,0 +1,206 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import com.google.protobuf.DescriptorProtos.DescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumDescriptorProto;
+import com.google.protobuf.DescriptorProtos.EnumValueDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FieldDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.MethodDescriptorProto;
+import com.google.protobuf.DescriptorProtos.OneofDescriptorProto;
+import com.google.protobuf.DescriptorProtos.ServiceDescriptorProto;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+
+/**
+ * Checks parsed proto files for symbols defined in more than one file, and for
+ * the naming conventions of the protobuf style guide.
+ */
+public class DescriptorValidator {
+
+    private static final Pattern PACKAGE = Pattern.compile("[a-z][a-z0-9_]*(\\.[a-z][a-z0-9_]*)*");
+    private static final Pattern CAMEL_CASE = Pattern.compile("[A-Z][A-Za-z0-9]*");
+    private static final Pattern LOWER_SNAKE_CASE = Pattern.compile("[a-z][a-z0-9_]*");
+    private static final Pattern UPPER_SNAKE_CASE = Pattern.compile("[A-Z][A-Z0-9_]*");
+
+    private final boolean namingAsWarning;
+
+    /**
+     * @param namingAsWarning report naming problems as warnings instead of errors
+     */
+    public DescriptorValidator(boolean namingAsWarning) {
+        this.namingAsWarning = namingAsWarning;
+    }
+
+    /**
+     * Protoc only reports duplicates among the files it parsed together, this
+     * also finds them between files parsed by different protoc runs.
+     */
+    public List<ProtocDiagnostic> checkDuplicates(Collection<FileDescriptorProto> files) {
+        List<ProtocDiagnostic> diagnostics = new ArrayList<ProtocDiagnostic>();
+        Map<String, String> definedIn = new HashMap<String, String>();
+        for (FileDescriptorProto file : files) {
+            DescriptorLocations locations = new DescriptorLocations(file);
+            String scope = file.getPackage();
+            for (int i = 0; i < file.getMessageTypeCount(); i++) {
+                checkMessage(file, locations, scope, file.getMessageType(i),
+                        path(DescriptorLocations.FILE_MESSAGE, i), definedIn, diagnostics);
+            }
+            for (int i = 0; i < file.getEnumTypeCount(); i++) {
+                checkEnum(file, locations, scope, file.getEnumType(i),
+                        path(DescriptorLocations.FILE_ENUM, i), definedIn, diagnostics);
+            }
+            for (int i = 0; i < file.getServiceCount(); i++) {
+                define(file, locations, qualify(scope, file.getService(i).getName()),
+                        path(DescriptorLocations.FILE_SERVICE, i), definedIn, diagnostics);
+            }
+        }
+        return diagnostics;
+    }
+
+    private void checkMessage(FileDescriptorProto file, DescriptorLocations locations, String scope,
+            DescriptorProto message, List<Integer> path, Map<String, String> definedIn,
+            List<ProtocDiagnostic> diagnostics) {
+        String name = qualify(scope, message.getName());
+        define(file, locations, name, path, definedIn, diagnostics);
+        for (int i = 0; i < message.getNestedTypeCount(); i++) {
+            checkMessage(file, locations, name, message.getNestedType(i),
+                    path(path, DescriptorLocations.MESSAGE_NESTED, i), definedIn, diagnostics);
+        }
+        for (int i = 0; i < message.getEnumTypeCount(); i++) {
+            checkEnum(file, locations, name, message.getEnumType(i),
+                    path(path, DescriptorLocations.MESSAGE_ENUM, i), definedIn, diagnostics);
+        }
+    }
+
+    private void checkEnum(FileDescriptorProto file, DescriptorLocations locations, String scope,
+            EnumDescriptorProto enumType, List<Integer> path, Map<String, String> definedIn,
+            List<ProtocDiagnostic> diagnostics) {
+        define(file, locations, qualify(scope, enumType.getName()), path, definedIn, diagnostics);
+        // Enum values are siblings of their enum, like in C++
+        for (int i = 0; i < enumType.getValueCount(); i++) {
+            define(file, locations, qualify(scope, enumType.getValue(i).getName()),
+                    path(path, DescriptorLocations.ENUM_VALUE, i), definedIn, diagnostics);
+        }
+    }
+
+    private void define(FileDescriptorProto file, DescriptorLocations locations, String name,
+            List<Integer> path, Map<String, String> definedIn, List<ProtocDiagnostic> diagnostics) {
+        String previous = definedIn.put(name, file.getName());
+        if (previous != null && !previous.equals(file.getName())) {
+            diagnostics.add(locations.diagnose(path, "\"" + name + "\" is already defined in " + previous, false));
+        }
+    }
+
+    public List<ProtocDiagnostic> checkNaming(FileDescriptorProto file) {
+        List<ProtocDiagnostic> diagnostics = new ArrayList<ProtocDiagnostic>();
+        DescriptorLocations locations = new DescriptorLocations(file);
+        if (file.getPackage().length() > 0 && !PACKAGE.matcher(file.getPackage()).matches()) {
+            diagnostics.add(locations.diagnose(path(2), "Package \"" + file.getPackage()
+                    + "\" should be lower case, separated by dots", namingAsWarning));
+        }
+        for (int i = 0; i < file.getMessageTypeCount(); i++) {
+            checkMessageNaming(locations, file.getMessageType(i), path(DescriptorLocations.FILE_MESSAGE, i), diagnostics);
+        }
+        for (int i = 0; i < file.getEnumTypeCount(); i++) {
+            checkEnumNaming(locations, file.getEnumType(i), path(DescriptorLocations.FILE_ENUM, i), diagnostics);
+        }
+        for (int i = 0; i < file.getServiceCount(); i++) {
+            ServiceDescriptorProto service = file.getService(i);
+            List<Integer> servicePath = path(DescriptorLocations.FILE_SERVICE, i);
+            check(locations, servicePath, "Service", service.getName(), CAMEL_CASE, "CamelCase", diagnostics);
+            for (int j = 0; j < service.getMethodCount(); j++) {
+                MethodDescriptorProto method = service.getMethod(j);
+                check(locations, path(servicePath, DescriptorLocations.SERVICE_METHOD, j),
+                        "Method", method.getName(), CAMEL_CASE, "CamelCase", diagnostics);
+            }
+        }
+        return diagnostics;
+    }
+
+    private void checkMessageNaming(DescriptorLocations locations, DescriptorProto message, List<Integer> path,
+            List<ProtocDiagnostic> diagnostics) {
+        if (message.getOptions().getMapEntry()) {
+            // Generated by protoc for map fields
+            return;
+        }
+        check(locations, path, "Message", message.getName(), CAMEL_CASE, "CamelCase", diagnostics);
+        for (int i = 0; i < message.getFieldCount(); i++) {
+            FieldDescriptorProto field = message.getField(i);
+            if (field.getType() != FieldDescriptorProto.Type.TYPE_GROUP) {
+                check(locations, path(path, DescriptorLocations.MESSAGE_FIELD, i),
+                        "Field", field.getName(), LOWER_SNAKE_CASE, "lower_snake_case", diagnostics);
+            }
+        }
+        for (int i = 0; i < message.getOneofDeclCount(); i++) {
+            OneofDescriptorProto oneof = message.getOneofDecl(i);
+            check(locations, path(path, DescriptorLocations.MESSAGE_ONEOF, i),
+                    "Oneof", oneof.getName(), LOWER_SNAKE_CASE, "lower_snake_case", diagnostics);
+        }
+        for (int i = 0; i < message.getNestedTypeCount(); i++) {
+            checkMessageNaming(locations, message.getNestedType(i),
+                    path(path, DescriptorLocations.MESSAGE_NESTED, i), diagnostics);
+        }
+        for (int i = 0; i < message.getEnumTypeCount(); i++) {
+            checkEnumNaming(locations, message.getEnumType(i),
+                    path(path, DescriptorLocations.MESSAGE_ENUM, i), diagnostics);
+        }
+    }
+
+    private void checkEnumNaming(DescriptorLocations locations, EnumDescriptorProto enumType, List<Integer> path,
+            List<ProtocDiagnostic> diagnostics) {
+        check(locations, path, "Enum", enumType.getName(), CAMEL_CASE, "CamelCase", diagnostics);
+        for (int i = 0; i < enumType.getValueCount(); i++) {
+            EnumValueDescriptorProto value = enumType.getValue(i);
+            check(locations, path(path, DescriptorLocations.ENUM_VALUE, i),
+                    "Enum value", value.getName(), UPPER_SNAKE_CASE, "UPPER_SNAKE_CASE", diagnostics);
+        }
+    }
+
+    private void check(DescriptorLocations locations, List<Integer> path, String kind, String name,
+            Pattern pattern, String convention, List<ProtocDiagnostic> diagnostics) {
+        if (!pattern.matcher(name).matches()) {
+            diagnostics.add(locations.diagnose(path,
+                    kind + " \"" + name + "\" should be " + convention, namingAsWarning));
+        }
+    }
+
+    static String qualify(String scope, String name) {
+        return scope.length() == 0 ? name : scope + "." + name;
+    }
+
+    static List<Integer> path(int... elements) {
+        List<Integer> path = new ArrayList<Integer>(elements.length);
+        for (int element : elements) {
+            path.add(element);
+        }
+        return path;
+    }
+
+    static List<Integer> path(List<Integer> parent, int... elements) {
+        List<Integer> path = new ArrayList<Integer>(parent);
+        path.addAll(path(elements));
+        return path;
+    }
+}
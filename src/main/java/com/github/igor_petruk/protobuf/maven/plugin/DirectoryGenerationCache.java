@@ -0,0 +1,76 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.UUID;
+
+/**
+ * A {@link GenerationCache} in a directory, which can be on a network drive shared
+ * by many machines. An archive is written to a temporary file first and then renamed,
+ * so readers never see a partially written archive.
+ */
+public class DirectoryGenerationCache implements GenerationCache {
+
+    private final File directory;
+
+    public DirectoryGenerationCache(File directory) {
+        this.directory = directory;
+    }
+
+    private File getFile(String key) {
+        return new File(new File(directory, key.substring(0, 2)), key + ".jar");
+    }
+
+    @Override
+    public boolean fetch(String key, File target) throws IOException {
+        File file = getFile(key);
+        if (!file.isFile()) {
+            return false;
+        }
+        FileUtils.copyFile(file, target);
+        return true;
+    }
+
+    @Override
+    public void store(String key, File archive) throws IOException {
+        File file = getFile(key);
+        File parent = file.getParentFile();
+        if (!parent.isDirectory() && !parent.mkdirs() && !parent.isDirectory()) {
+            throw new IOException("Unable to create " + parent);
+        }
+        File temp = new File(parent, key + "-" + UUID.randomUUID() + ".tmp");
+        try {
+            FileUtils.copyFile(archive, temp);
+            // Another build may have stored the same key in the meantime, which is just as good
+            if (!temp.renameTo(file) && !file.isFile()) {
+                throw new IOException("Unable to move " + temp + " to " + file);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    @Override
+    public String toString() {
+        return directory.toString();
+    }
+}
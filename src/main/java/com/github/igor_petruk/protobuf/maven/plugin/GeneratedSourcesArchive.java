@@ -0,0 +1,228 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import org.codehaus.plexus.util.IOUtil;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.jar.JarOutputStream;
+import java.util.jar.Manifest;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+/**
+ * A jar with generated sources, the descriptor set of the proto files they were
+ * generated from and a key that identifies the proto files, the protoc version and
+ * the generators. A module that would generate the same sources can unpack the
+ * jar instead of running protoc.
+ */
+public class GeneratedSourcesArchive {
+
+    private static final String METADATA_PREFIX = "META-INF/protobuf-maven-plugin/";
+    private static final String PROPERTIES = METADATA_PREFIX + "generation.properties";
+    private static final String DESCRIPTORS = METADATA_PREFIX + "descriptors.pb";
+    private static final String KEY = "key";
+    private static final String GENERATOR_PREFIX = "generator.";
+
+    private GeneratedSourcesArchive() {
+    }
+
+    /**
+     * @param generators generator of every file, keyed by its path relative to the
+     * output directory with '/' separators
+     * @param descriptorSet descriptor set of the proto files, or null to leave it out
+     */
+    public static void write(File jar, String key, File outputDirectory, Map<String, String> generators,
+            File descriptorSet) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(KEY, key);
+        for (Map.Entry<String, String> entry : generators.entrySet()) {
+            properties.setProperty(GENERATOR_PREFIX + entry.getKey(), entry.getValue());
+        }
+        jar.getParentFile().mkdirs();
+        File temp = new File(jar.getParentFile(), jar.getName() + "-" + UUID.randomUUID() + ".tmp");
+        try {
+            Manifest manifest = new Manifest();
+            manifest.getMainAttributes().putValue("Manifest-Version", "1.0");
+            JarOutputStream out = new JarOutputStream(new FileOutputStream(temp), manifest);
+            try {
+                out.putNextEntry(new ZipEntry(PROPERTIES));
+                properties.store(out, "protobuf-maven-plugin generated sources");
+                out.closeEntry();
+                if (descriptorSet != null) {
+                    addFile(out, DESCRIPTORS, descriptorSet);
+                }
+                for (String output : new TreeMap<String, String>(generators).keySet()) {
+                    addFile(out, output, new File(outputDirectory, output));
+                }
+            } finally {
+                out.close();
+            }
+            if (jar.exists() && !jar.delete() || !temp.renameTo(jar)) {
+                throw new IOException("Unable to move " + temp + " to " + jar);
+            }
+        } finally {
+            temp.delete();
+        }
+    }
+
+    private static void addFile(JarOutputStream out, String name, File file) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        InputStream in = new FileInputStream(file);
+        try {
+            IOUtil.copy(in, out);
+        } finally {
+            in.close();
+        }
+        out.closeEntry();
+    }
+
+    /**
+     * @return key of the archive, or null if the jar is not a generated sources archive
+     */
+    public static String readKey(File jar) throws IOException {
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Properties properties = readProperties(zip);
+            return properties == null ? null : properties.getProperty(KEY);
+        } finally {
+            zip.close();
+        }
+    }
+
+    /**
+     * Unpacks the generated sources. Files whose content did not change are
+     * not written, so they keep their timestamps.
+     * @param changed receives files that were written
+     * @return generator of every unpacked file, keyed by its path relative to the
+     * output directory with '/' separators
+     */
+    public static Map<String, String> extract(File jar, File outputDirectory, List<File> changed) throws IOException {
+        Map<String, String> generators = new TreeMap<String, String>();
+        ZipFile zip = new ZipFile(jar);
+        try {
+            Properties properties = readProperties(zip);
+            if (properties == null) {
+                throw new IOException(jar + " is not a generated sources archive");
+            }
+            for (String name : properties.stringPropertyNames()) {
+                if (!name.startsWith(GENERATOR_PREFIX)) {
+                    continue;
+                }
+                String output = name.substring(GENERATOR_PREFIX.length());
+                ZipEntry entry = zip.getEntry(output);
+                if (entry == null) {
+                    throw new IOException(output + " is missing in " + jar);
+                }
+                File file = new File(outputDirectory, output);
+                if (!file.getCanonicalPath().startsWith(outputDirectory.getCanonicalPath() + File.separator)) {
+                    throw new IOException("Entry " + output + " of " + jar
+                            + " would be written outside of " + outputDirectory);
+                }
+                byte[] content = read(zip, entry);
+                if (!file.isFile() || !Arrays.equals(content, readFile(file))) {
+                    file.getParentFile().mkdirs();
+                    OutputStream out = new FileOutputStream(file);
+                    try {
+                        out.write(content);
+                    } finally {
+                        out.close();
+                    }
+                    changed.add(file);
+                }
+                generators.put(output, properties.getProperty(name));
+            }
+        } finally {
+            zip.close();
+        }
+        return generators;
+    }
+
+    /**
+     * Copies the descriptor set of the proto files out of the archive.
+     * @return false if the archive has no descriptor set
+     */
+    public static boolean extractDescriptorSet(File jar, File target) throws IOException {
+        ZipFile zip = new ZipFile(jar);
+        try {
+            ZipEntry entry = zip.getEntry(DESCRIPTORS);
+            if (entry == null) {
+                return false;
+            }
+            target.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(target);
+            try {
+                out.write(read(zip, entry));
+            } finally {
+                out.close();
+            }
+            return true;
+        } finally {
+            zip.close();
+        }
+    }
+
+    private static Properties readProperties(ZipFile zip) throws IOException {
+        ZipEntry entry = zip.getEntry(PROPERTIES);
+        if (entry == null) {
+            return null;
+        }
+        Properties properties = new Properties();
+        InputStream in = zip.getInputStream(entry);
+        try {
+            properties.load(in);
+        } finally {
+            in.close();
+        }
+        return properties;
+    }
+
+    private static byte[] read(ZipFile zip, ZipEntry entry) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = zip.getInputStream(entry);
+        try {
+            IOUtil.copy(in, out);
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+
+    private static byte[] readFile(File file) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        InputStream in = new FileInputStream(file);
+        try {
+            IOUtil.copy(in, out);
+        } finally {
+            in.close();
+        }
+        return out.toByteArray();
+    }
+}
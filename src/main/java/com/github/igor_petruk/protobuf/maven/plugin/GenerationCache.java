@@ -0,0 +1,42 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Storage for generated sources shared between builds, for example by all agents
+ * of a CI fleet. Entries are {@link GeneratedSourcesArchive} jars keyed by a digest
+ * of everything the generated files depend on, so an entry never changes once it
+ * is stored. Implementations must allow concurrent builds to read and write the
+ * same key.
+ */
+public interface GenerationCache {
+
+    /**
+     * Copies the archive stored under the key to the target file.
+     * @return false if there is no archive for the key
+     */
+    boolean fetch(String key, File target) throws IOException;
+
+    /**
+     * Stores the archive under the key.
+     */
+    void store(String key, File archive) throws IOException;
+}
@@ -0,0 +1,111 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.lang.ref.WeakReference;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Makes sure identical generation requests from different modules of a reactor
+ * are only run once. There is one instance per build session, so results never
+ * leak into the next build of a long running JVM, like the Maven daemon or an IDE.
+ * When several builder threads ask for the same key, one runs the generation
+ * and the others wait for its result.
+ */
+public class GenerationCoordinator {
+
+    private static final Object NO_SESSION = new Object();
+
+    private static final List<Instance> INSTANCES = new ArrayList<Instance>();
+
+    private final ConcurrentMap<String, FutureTask<File>> results = new ConcurrentHashMap<String, FutureTask<File>>();
+
+    /**
+     * @param session an object that lives exactly as long as the build session,
+     * the instance is released together with it. Sessions are compared by identity,
+     * two builds never share an instance because their objects happen to be equal.
+     */
+    public static GenerationCoordinator getInstance(Object session) {
+        Object key = session != null ? session : NO_SESSION;
+        synchronized (INSTANCES) {
+            for (Iterator<Instance> iterator = INSTANCES.iterator(); iterator.hasNext(); ) {
+                Instance instance = iterator.next();
+                Object owner = instance.get();
+                if (owner == null) {
+                    iterator.remove();
+                } else if (owner == key) {
+                    return instance.coordinator;
+                }
+            }
+            Instance instance = new Instance(key, new GenerationCoordinator());
+            INSTANCES.add(instance);
+            return instance.coordinator;
+        }
+    }
+
+    /**
+     * @return true if the key was requested in this session
+     */
+    public boolean isKnown(String key) {
+        return results.containsKey(key);
+    }
+
+    /**
+     * @param key digest of everything that affects the generated files
+     * @param generation generates the files and returns the directory they are in
+     * @return directory with the generated files, possibly generated by another module
+     */
+    public File generate(String key, Callable<File> generation) throws ExecutionException, InterruptedException {
+        while (true) {
+            FutureTask<File> task = new FutureTask<File>(generation);
+            FutureTask<File> existing = results.putIfAbsent(key, task);
+            if (existing == null) {
+                task.run();
+                existing = task;
+            }
+            try {
+                File directory = existing.get();
+                if (existing == task || directory.isDirectory()) {
+                    return directory;
+                }
+                // The directory of a previous build was cleaned, generate again
+                results.remove(key, existing);
+            } catch (ExecutionException e) {
+                results.remove(key, existing);
+                throw e;
+            }
+        }
+    }
+
+    private static class Instance extends WeakReference<Object> {
+
+        private final GenerationCoordinator coordinator;
+
+        Instance(Object session, GenerationCoordinator coordinator) {
+            super(session);
+            this.coordinator = coordinator;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.MessageDigest;
+import java.util.Arrays;
+
+/**
+ * Digest of everything a run of the goal depends on, built only from cheap
+ * information: configuration values and the size and modification time of files.
+ * If it equals the digest stored after the last successful run, the run can
+ * be skipped without looking at anything else.
+ */
+public class GenerationFingerprint {
+
+    private final MessageDigest digest = Digests.newDigest();
+
+    public GenerationFingerprint add(String name, Object value) {
+        String text = value instanceof Object[] ? Arrays.deepToString((Object[]) value) : String.valueOf(value);
+        Digests.update(digest, name + "=" + text + "\n");
+        return this;
+    }
+
+    /**
+     * Adds path, size and modification time of a file, or only its path if it does not exist.
+     */
+    public GenerationFingerprint addFile(File file) {
+        if (file == null) {
+            return add("file", null);
+        }
+        if (!file.exists()) {
+            return add("file", file.getAbsolutePath());
+        }
+        return add("file", file.getAbsolutePath() + "|" + file.length() + "|" + file.lastModified());
+    }
+
+    public GenerationFingerprint addSource(ProtoSource source) {
+        return add("source", source.getFile().getAbsolutePath() + "|" + source.getSize() + "|" + source.getLastModified());
+    }
+
+    public String get() {
+        return Digests.toHex(digest.digest());
+    }
+
+    /**
+     * @return stored fingerprint or null if there is none
+     */
+    public static String load(File file) {
+        if (!file.isFile()) {
+            return null;
+        }
+        try {
+            return FileUtils.fileRead(file, "UTF-8").trim();
+        } catch (IOException e) {
+            return null;
+        }
+    }
+
+    public static void save(File file, String fingerprint) throws IOException {
+        file.getParentFile().mkdirs();
+        FileUtils.fileWrite(file.getAbsolutePath(), "UTF-8", fingerprint);
+    }
+}
@@ -0,0 +1,89 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A protoc code generator, either built into protoc like java, cpp and python,
+ * or an external protoc plugin.
+ */
+public class Generator {
+
+    private final String name;
+    private final boolean plugin;
+    private final String executable;
+    private final String options;
+
+    public Generator(String name, boolean plugin, String executable, String options) {
+        this.name = name;
+        this.plugin = plugin;
+        this.executable = executable;
+        this.options = options;
+    }
+
+    public static Generator builtIn(String name) {
+        return new Generator(name, false, null, null);
+    }
+
+    public static Generator plugin(ProtocPlugin plugin) {
+        return new Generator(plugin.getId(), true, plugin.getExecutable(), plugin.getOptions());
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * @return true for an external protoc plugin
+     */
+    public boolean isPlugin() {
+        return plugin;
+    }
+
+    /**
+     * @return plugin executable as configured, null for generators built into protoc
+     * and for plugins protoc looks up on PATH
+     */
+    public String getExecutable() {
+        return executable;
+    }
+
+    public String getOptions() {
+        return options;
+    }
+
+    /**
+     * @return protoc arguments that run this generator into the output directory
+     */
+    public List<String> getArguments(File outputDir) {
+        List<String> args = new ArrayList<String>(2);
+        if (executable != null) {
+            args.add("--plugin=protoc-gen-" + name + "=" + executable);
+        }
+        String prefix = options == null || options.length() == 0 ? "" : options + ":";
+        args.add("--" + name + "_out=" + prefix + outputDir);
+        return args;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Import relations between proto files, with a reverse index from every
+ * file to the files that import it.
+ */
+public class ImportGraph {
+
+    private final Set<File> files = new LinkedHashSet<File>();
+    private final Map<File, File> paths = new HashMap<File, File>();
+    private final Map<File, Set<File>> importedBy = new HashMap<File, Set<File>>();
+
+    /**
+     * Scans the given files and everything they import.
+     * @param filesByInput proto files grouped by the input directory they were found in
+     * @param includeDirectories additional include path, searched before the input directory
+     */
+    public static ImportGraph build(ProtoImportScanner scanner, Map<File, List<File>> filesByInput,
+            File[] includeDirectories) throws IOException {
+        ImportGraph graph = new ImportGraph();
+        for (Map.Entry<File, List<File>> entry : filesByInput.entrySet()) {
+            List<File> roots = new ArrayList<File>();
+            if (includeDirectories != null) {
+                for (File include : includeDirectories) {
+                    roots.add(include);
+                }
+            }
+            roots.add(entry.getKey());
+            for (File file : entry.getValue()) {
+                graph.scan(scanner, file, roots);
+            }
+        }
+        return graph;
+    }
+
+    private void scan(ProtoImportScanner scanner, File path, List<File> roots) throws IOException {
+        File file = path.getCanonicalFile();
+        if (!files.add(file)) {
+            return;
+        }
+        paths.put(file, path);
+        for (String importPath : scanner.getImports(file)) {
+            File imported = scanner.resolve(importPath, roots);
+            if (imported == null) {
+                continue;
+            }
+            File canonicalImport = imported.getCanonicalFile();
+            Set<File> dependents = importedBy.get(canonicalImport);
+            if (dependents == null) {
+                dependents = new HashSet<File>();
+                importedBy.put(canonicalImport, dependents);
+            }
+            dependents.add(file);
+            scan(scanner, imported, roots);
+        }
+    }
+
+    /**
+     * @return all scanned files in canonical form, including imported files from include directories
+     */
+    public Set<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return the path the file was first reached by, under the configured directory
+     */
+    public File getPath(File file) {
+        File path = paths.get(file);
+        return path != null ? path : file;
+    }
+
+    /**
+     * @return the changed files and every file that imports any of them, directly or not
+     */
+    public Set<File> getAffectedFiles(Collection<File> changed) {
+        Set<File> affected = new HashSet<File>();
+        LinkedList<File> queue = new LinkedList<File>(changed);
+        while (!queue.isEmpty()) {
+            File file = queue.removeFirst();
+            if (!affected.add(file)) {
+                continue;
+            }
+            Set<File> dependents = importedBy.get(file);
+            if (dependents != null) {
+                queue.addAll(dependents);
+            }
+        }
+        return affected;
+    }
+}
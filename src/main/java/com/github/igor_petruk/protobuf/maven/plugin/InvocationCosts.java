@@ -0,0 +1,144 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * How long protoc took for every proto file in previous builds, stored under the
+ * build directory. The duration of a batch is divided among its files by size.
+ * Files without a recorded duration are estimated from their size.
+ */
+public class InvocationCosts {
+
+    private static final String COST_PREFIX = "cost.";
+
+    /** Microseconds keyed by absolute path of the proto file */
+    private final Map<String, Long> costs = new HashMap<String, Long>();
+    private Double costPerByte;
+
+    /**
+     * @return loaded costs, or no costs if there is no readable file
+     */
+    public static InvocationCosts load(File file) {
+        InvocationCosts result = new InvocationCosts();
+        if (!file.isFile()) {
+            return result;
+        }
+        Properties properties = new Properties();
+        try {
+            InputStream in = new FileInputStream(file);
+            try {
+                properties.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            return result;
+        }
+        for (String key : properties.stringPropertyNames()) {
+            if (key.startsWith(COST_PREFIX)) {
+                try {
+                    result.costs.put(key.substring(COST_PREFIX.length()), Long.parseLong(properties.getProperty(key)));
+                } catch (NumberFormatException e) {
+                    // Ignore damaged entries, the file is estimated again
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * @param nanos duration of a protoc run for the files
+     */
+    public synchronized void record(List<File> files, long nanos) {
+        long total = 0;
+        for (File file : files) {
+            total += file.length();
+        }
+        long micros = nanos / 1000;
+        for (File file : files) {
+            long share = total == 0 ? micros / files.size() : micros * file.length() / total;
+            costs.put(file.getAbsolutePath(), Math.max(1, share));
+        }
+        costPerByte = null;
+    }
+
+    /**
+     * @return recorded or estimated cost of the file, always positive
+     */
+    public synchronized long estimate(File file) {
+        Long cost = costs.get(file.getAbsolutePath());
+        if (cost != null) {
+            return cost;
+        }
+        if (costPerByte == null) {
+            long totalCost = 0;
+            long totalSize = 0;
+            for (Map.Entry<String, Long> entry : costs.entrySet()) {
+                long size = new File(entry.getKey()).length();
+                if (size > 0) {
+                    totalCost += entry.getValue();
+                    totalSize += size;
+                }
+            }
+            costPerByte = totalSize == 0 ? 1.0 : (double) totalCost / totalSize;
+        }
+        return Math.max(1, (long) (file.length() * costPerByte));
+    }
+
+    public long estimate(Collection<File> files) {
+        long total = 0;
+        for (File file : files) {
+            total += estimate(file);
+        }
+        return total;
+    }
+
+    /**
+     * Forgets files that are not among the given paths.
+     */
+    public synchronized void retain(Collection<String> paths) {
+        costs.keySet().retainAll(paths);
+        costPerByte = null;
+    }
+
+    public synchronized void save(File file) throws IOException {
+        Properties properties = new Properties();
+        for (Map.Entry<String, Long> entry : costs.entrySet()) {
+            properties.setProperty(COST_PREFIX + entry.getKey(), entry.getValue().toString());
+        }
+        file.getParentFile().mkdirs();
+        OutputStream out = new FileOutputStream(file);
+        try {
+            properties.store(out, "protobuf-maven-plugin protoc durations in microseconds");
+        } finally {
+            out.close();
+        }
+    }
+}
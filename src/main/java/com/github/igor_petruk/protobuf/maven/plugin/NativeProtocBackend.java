@@ -0,0 +1,147 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Runs a protoc executable installed on the machine in a separate process.
+ * Output and error streams are drained by their own threads while protoc runs,
+ * so a chatty protoc can never block on a full pipe.
+ */
+public class NativeProtocBackend implements ProtocBackend {
+
+    private static final ScheduledExecutorService WATCHDOG = Executors.newSingleThreadScheduledExecutor(
+            new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable runnable) {
+                    Thread thread = new Thread(runnable, "protoc-watchdog");
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            });
+
+    private final String command;
+    private final long timeoutMillis;
+
+    public NativeProtocBackend(String command) {
+        this(command, 0);
+    }
+
+    /**
+     * @param timeoutMillis time after which protoc is killed, 0 to wait forever
+     */
+    public NativeProtocBackend(String command, long timeoutMillis) {
+        this.command = command;
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    @Override
+    public String getName() {
+        return command;
+    }
+
+    @Override
+    public ProtocResult execute(List<String> arguments) throws IOException, InterruptedException {
+        List<String> cmd = new ArrayList<String>(arguments.size() + 1);
+        cmd.add(command);
+        cmd.addAll(arguments);
+        final Process process = new ProcessBuilder(cmd).start();
+        process.getOutputStream().close();
+        StreamPump output = new StreamPump(process.getInputStream(), "protoc-stdout");
+        StreamPump errors = new StreamPump(process.getErrorStream(), "protoc-stderr");
+        output.start();
+        errors.start();
+
+        final AtomicBoolean timedOut = new AtomicBoolean();
+        ScheduledFuture<?> kill = null;
+        if (timeoutMillis > 0) {
+            kill = WATCHDOG.schedule(new Runnable() {
+                @Override
+                public void run() {
+                    timedOut.set(true);
+                    process.destroy();
+                }
+            }, timeoutMillis, TimeUnit.MILLISECONDS);
+        }
+        try {
+            int exitCode = process.waitFor();
+            // Children of a killed protoc may keep the pipes open, do not wait for them
+            long pumpTimeout = timedOut.get() ? 1000 : 0;
+            output.join(pumpTimeout);
+            errors.join(pumpTimeout);
+            return new ProtocResult(exitCode, output.getLines(), errors.getLines(), timedOut.get());
+        } catch (InterruptedException e) {
+            process.destroy();
+            throw e;
+        } finally {
+            if (kill != null) {
+                kill.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * Reads a stream line by line until it ends.
+     */
+    private static class StreamPump extends Thread {
+        private final InputStream in;
+        private final List<String> lines = new ArrayList<String>();
+
+        StreamPump(InputStream in, String name) {
+            super(name);
+            this.in = in;
+            setDaemon(true);
+        }
+
+        @Override
+        public void run() {
+            try {
+                BufferedReader reader = new BufferedReader(new InputStreamReader(in));
+                try {
+                    String line;
+                    while ((line = reader.readLine()) != null) {
+                        synchronized (lines) {
+                            lines.add(line);
+                        }
+                    }
+                } finally {
+                    reader.close();
+                }
+            } catch (IOException e) {
+                // The stream is closed when the process is killed
+            }
+        }
+
+        List<String> getLines() {
+            synchronized (lines) {
+                return new ArrayList<String>(lines);
+            }
+        }
+    }
+}
@@ -0,0 +1,158 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A private directory protoc writes to, so that it is known exactly which
+ * files a single protoc run produced before they are moved to the output directory.
+ * Files that did not change are not touched, which keeps their timestamps and
+ * avoids needless recompilation of generated sources.
+ */
+public class OutputStaging {
+
+    private final File directory;
+
+    public OutputStaging(File directory) {
+        this.directory = directory;
+    }
+
+    public File getDirectory() {
+        return directory;
+    }
+
+    public void prepare() throws IOException {
+        if (directory.exists()) {
+            FileUtils.deleteDirectory(directory);
+        }
+        if (!directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+    }
+
+    /**
+     * Moves everything from the staging directory to the output directory,
+     * skipping files whose content is already there.
+     * @param changed receives files in the output directory that were created or modified
+     * @return all staged files relative to the output directory, with '/' separators
+     */
+    public List<String> moveTo(File outputDirectory, Collection<File> changed) throws IOException {
+        List<String> moved = new ArrayList<String>();
+        transfer(directory, "", outputDirectory, moved, changed, true);
+        FileUtils.deleteDirectory(directory);
+        return moved;
+    }
+
+    /**
+     * Same as {@link #moveTo(File, Collection)}, but leaves the staging directory intact,
+     * so that it can be copied to several output directories.
+     */
+    public List<String> copyTo(File outputDirectory, Collection<File> changed) throws IOException {
+        List<String> copied = new ArrayList<String>();
+        transfer(directory, "", outputDirectory, copied, changed, false);
+        return copied;
+    }
+
+    private void transfer(File dir, String prefix, File outputDirectory, List<String> moved,
+            Collection<File> changed, boolean move) throws IOException {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String relative = prefix + child.getName();
+            if (child.isDirectory()) {
+                transfer(child, relative + "/", outputDirectory, moved, changed, move);
+                continue;
+            }
+            moved.add(relative);
+            File target = new File(outputDirectory, relative);
+            if (target.isFile() && target.length() == child.length() && FileUtils.contentEquals(child, target)) {
+                continue;
+            }
+            target.getParentFile().mkdirs();
+            if (target.exists() && !target.delete()) {
+                throw new IOException("Unable to overwrite " + target);
+            }
+            if (!move || !child.renameTo(target)) {
+                FileUtils.copyFile(child, target);
+            }
+            changed.add(target);
+        }
+    }
+
+    /**
+     * Deletes the given files from the output directory, and their parent
+     * directories that become empty.
+     * @param files files to delete, relative to the output directory, with '/' separators
+     * @param deleted receives deleted files
+     */
+    public static void delete(File outputDirectory, Collection<String> files, Collection<File> deleted) {
+        for (String relative : files) {
+            File file = new File(outputDirectory, relative);
+            if (!file.delete()) {
+                continue;
+            }
+            deleted.add(file);
+            File parent = file.getParentFile();
+            while (parent != null && !parent.equals(outputDirectory)) {
+                String[] remaining = parent.list();
+                if (remaining == null || remaining.length > 0 || !parent.delete()) {
+                    break;
+                }
+                parent = parent.getParentFile();
+            }
+        }
+    }
+
+    /**
+     * Deletes files in the output directory that are not in the given set, and
+     * directories that become empty.
+     * @param keep files to keep, relative to the output directory, with '/' separators
+     * @param deleted receives deleted files
+     */
+    public static void deleteOrphans(File outputDirectory, Set<String> keep, Collection<File> deleted) {
+        deleteOrphans(outputDirectory, "", keep, deleted);
+    }
+
+    private static void deleteOrphans(File dir, String prefix, Set<String> keep, Collection<File> deleted) {
+        File[] children = dir.listFiles();
+        if (children == null) {
+            return;
+        }
+        for (File child : children) {
+            String relative = prefix + child.getName();
+            if (child.isDirectory()) {
+                deleteOrphans(child, relative + "/", keep, deleted);
+                String[] remaining = child.list();
+                if (remaining != null && remaining.length == 0) {
+                    child.delete();
+                }
+            } else if (!keep.contains(relative) && child.delete()) {
+                deleted.add(child);
+            }
+        }
+    }
+}
@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Output directory of one or more generators, configured in the pom:
+ * <pre>
+ * &lt;outputTargets&gt;
+ *     &lt;outputTarget&gt;
+ *         &lt;generators&gt;java,grpc-java&lt;/generators&gt;
+ *         &lt;outputDirectory&gt;${project.build.directory}/generated-sources&lt;/outputDirectory&gt;
+ *     &lt;/outputTarget&gt;
+ *     &lt;outputTarget&gt;
+ *         &lt;generators&gt;python&lt;/generators&gt;
+ *         &lt;outputDirectory&gt;${project.build.directory}/generated-python&lt;/outputDirectory&gt;
+ *         &lt;addSources&gt;none&lt;/addSources&gt;
+ *     &lt;/outputTarget&gt;
+ * &lt;/outputTargets&gt;
+ * </pre>
+ */
+public class OutputTarget {
+
+    /**
+     * Comma separated generator names: java, cpp, python or the id of a protoc plugin.
+     */
+    private String generators;
+
+    /**
+     * Directory the generated files are written to.
+     */
+    private File outputDirectory;
+
+    /**
+     * Adds the output directory to "main" or "test" sources, or to none of them with "none".
+     */
+    private String addSources = "main";
+
+    public OutputTarget() {
+    }
+
+    public OutputTarget(List<String> generators, File outputDirectory, String addSources) {
+        StringBuilder names = new StringBuilder();
+        for (String generator : generators) {
+            if (names.length() > 0) {
+                names.append(',');
+            }
+            names.append(generator);
+        }
+        this.generators = names.toString();
+        this.outputDirectory = outputDirectory;
+        this.addSources = addSources;
+    }
+
+    public List<String> getGenerators() {
+        List<String> names = new ArrayList<String>();
+        if (generators != null) {
+            for (String name : generators.split(",")) {
+                if (name.trim().length() > 0) {
+                    names.add(name.trim());
+                }
+            }
+        }
+        return names;
+    }
+
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    public String getAddSources() {
+        return addSources;
+    }
+
+    @Override
+    public String toString() {
+        return getGenerators() + " to " + outputDirectory;
+    }
+}
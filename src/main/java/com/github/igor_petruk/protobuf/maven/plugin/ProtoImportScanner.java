@@ -0,0 +1,148 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads 'import' statements of proto files and resolves them against the
+ * include path the same way protoc does. It is not a parser, it only needs
+ * to be good enough to find which files a proto depends on.
+ */
+public class ProtoImportScanner {
+
+    /**
+     * Protobuf accepts both quote styles and several statements on one line.
+     */
+    private static final Pattern IMPORT = Pattern.compile(
+            "\\bimport\\s+(?:public\\s+|weak\\s+)?([\"'])([^\"']+)\\1\\s*;");
+
+    private final Map<File, String> contentDigests = new HashMap<File, String>();
+    private final Map<File, List<String>> imports = new HashMap<File, List<String>>();
+    private final Set<File> knownFiles = Collections.synchronizedSet(new HashSet<File>());
+
+    /**
+     * Registers a file that is known to exist, so resolving imports to it
+     * does not need to check the file system again.
+     */
+    public void addKnownFile(File file) {
+        knownFiles.add(file);
+    }
+
+    /**
+     * @return import paths exactly as written in the file
+     */
+    public synchronized List<String> getImports(File file) throws IOException {
+        List<String> result = imports.get(file);
+        if (result == null) {
+            result = new ArrayList<String>();
+            BufferedReader reader = new BufferedReader(
+                    new InputStreamReader(new FileInputStream(file), "UTF-8"));
+            try {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    Matcher matcher = IMPORT.matcher(line);
+                    while (matcher.find()) {
+                        result.add(matcher.group(2));
+                    }
+                }
+            } finally {
+                reader.close();
+            }
+            imports.put(file, result);
+        }
+        return result;
+    }
+
+    /**
+     * @param importPath path as written in the import statement
+     * @param roots include path in protoc order
+     * @return resolved file or null for imports protoc provides itself
+     */
+    public File resolve(String importPath, List<File> roots) {
+        for (File root : roots) {
+            File candidate = new File(root, importPath);
+            if (knownFiles.contains(candidate) || candidate.isFile()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @return resolved transitive imports keyed by import path, not including the file itself
+     */
+    public Map<String, File> getTransitiveImports(File file, List<File> roots) throws IOException {
+        Map<String, File> result = new TreeMap<String, File>();
+        collectImports(file, roots, result);
+        return result;
+    }
+
+    private void collectImports(File file, List<File> roots, Map<String, File> result) throws IOException {
+        for (String importPath : getImports(file)) {
+            if (result.containsKey(importPath)) {
+                continue;
+            }
+            File resolved = resolve(importPath, roots);
+            result.put(importPath, resolved);
+            if (resolved != null) {
+                collectImports(resolved, roots, result);
+            }
+        }
+    }
+
+    public synchronized String getContentDigest(File file) throws IOException {
+        String digest = contentDigests.get(file);
+        if (digest == null) {
+            digest = Digests.digest(file);
+            contentDigests.put(file, digest);
+        }
+        return digest;
+    }
+
+    /**
+     * @return digest of the file contents and the contents of all its transitive imports
+     */
+    public String getFingerprint(File file, List<File> roots) throws IOException {
+        MessageDigest digest = Digests.newDigest();
+        Digests.update(digest, getContentDigest(file));
+        Map<String, File> transitive = getTransitiveImports(file, roots);
+        Set<Map.Entry<String, File>> entries = transitive.entrySet();
+        for (Map.Entry<String, File> entry : entries) {
+            Digests.update(digest, "\n" + entry.getKey() + "=");
+            if (entry.getValue() != null) {
+                Digests.update(digest, getContentDigest(entry.getValue()));
+            }
+        }
+        return Digests.toHex(digest.digest());
+    }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+
+/**
+ * A proto file found in an input directory, with the attributes
+ * read while walking the directory.
+ */
+public class ProtoSource {
+    private final File file;
+    private final long size;
+    private final long lastModified;
+
+    public ProtoSource(File file, long size, long lastModified) {
+        this.file = file;
+        this.size = size;
+        this.lastModified = lastModified;
+    }
+
+    public File getFile() {
+        return file;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public long getLastModified() {
+        return lastModified;
+    }
+}
@@ -0,0 +1,121 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystem;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitOption;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Finds proto files in an input directory and its subdirectories.
+ * Patterns are globs relative to the input directory, "**&#47;" also
+ * matches files directly in the directory, like in Ant. Symbolic links
+ * to files and directories are followed.
+ */
+public class ProtoSourceScanner {
+
+    /**
+     * Protects against deep chains of links, cycles are detected separately.
+     */
+    private static final int MAX_DEPTH = 100;
+
+    private final List<PathMatcher> includes;
+    private final List<PathMatcher> excludes;
+
+    public ProtoSourceScanner(String[] includes, String[] excludes) {
+        this.includes = compile(includes);
+        this.excludes = compile(excludes);
+    }
+
+    private static List<PathMatcher> compile(String[] patterns) {
+        List<PathMatcher> matchers = new ArrayList<PathMatcher>();
+        if (patterns == null) {
+            return matchers;
+        }
+        FileSystem fileSystem = FileSystems.getDefault();
+        for (String pattern : patterns) {
+            String glob = pattern.trim().replace('\\', '/');
+            matchers.add(fileSystem.getPathMatcher("glob:" + glob));
+            while (glob.startsWith("**/")) {
+                glob = glob.substring(3);
+                matchers.add(fileSystem.getPathMatcher("glob:" + glob));
+            }
+        }
+        return matchers;
+    }
+
+    /**
+     * Walks the directory once and returns matching files sorted by path.
+     */
+    public List<ProtoSource> scan(final File root) throws IOException {
+        final List<ProtoSource> sources = new ArrayList<ProtoSource>();
+        final Path rootPath = root.toPath();
+        Files.walkFileTree(rootPath, EnumSet.of(FileVisitOption.FOLLOW_LINKS), MAX_DEPTH,
+                new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile()) {
+                    Path relative = rootPath.relativize(file);
+                    if (matches(includes, relative) && !matches(excludes, relative)) {
+                        sources.add(new ProtoSource(file.toFile(), attrs.size(),
+                                attrs.lastModifiedTime().toMillis()));
+                    }
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+                if (e instanceof FileSystemLoopException) {
+                    // A link to one of its parent directories, everything below was already visited
+                    return FileVisitResult.CONTINUE;
+                }
+                throw e;
+            }
+        });
+        Collections.sort(sources, new Comparator<ProtoSource>() {
+            @Override
+            public int compare(ProtoSource a, ProtoSource b) {
+                return a.getFile().compareTo(b.getFile());
+            }
+        });
+        return sources;
+    }
+
+    private static boolean matches(List<PathMatcher> matchers, Path path) {
+        for (PathMatcher matcher : matchers) {
+            if (matcher.matches(path)) {
+                return true;
+            }
+        }
+        return false;
+    }
+}
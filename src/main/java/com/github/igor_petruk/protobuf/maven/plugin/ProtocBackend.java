@@ -16,18 +16,21 @@
 
 package com.github.igor_petruk.protobuf.maven.plugin;
 
-import java.io.File;
-import java.io.FilenameFilter;
+import java.io.IOException;
+import java.util.List;
 
-public class ProtoFileFilter implements FilenameFilter{
-    String extension;
-    
-    public ProtoFileFilter(String extension) {
-        this.extension = extension;
-    }
+/**
+ * Something that can run protoc with the given arguments.
+ */
+public interface ProtocBackend {
+
+    /**
+     * @return a short name identifying the backend and the protoc it runs
+     */
+    String getName();
 
-    @Override
-    public boolean accept(File dir, String name) {
-        return name.endsWith(extension);
-    }
+    /**
+     * @param arguments protoc arguments, not including the executable
+     */
+    ProtocResult execute(List<String> arguments) throws IOException, InterruptedException;
 }
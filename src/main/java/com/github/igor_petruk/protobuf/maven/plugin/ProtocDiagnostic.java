@@ -0,0 +1,97 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * An error or warning printed by protoc, like
+ * "foo.proto:12:5: warning: Import bar.proto but not used."
+ */
+public class ProtocDiagnostic {
+
+    private static final Pattern WITH_POSITION = Pattern.compile("^(.+?):(\\d+):(\\d+): (.*)$");
+    private static final Pattern WITHOUT_POSITION = Pattern.compile("^(.+?\\.\\w+): (.*)$");
+    private static final String WARNING = "warning:";
+
+    private final String file;
+    private final int line;
+    private final int column;
+    private final String message;
+    private final boolean warning;
+
+    public ProtocDiagnostic(String file, int line, int column, String message, boolean warning) {
+        this.file = file;
+        this.line = line;
+        this.column = column;
+        this.message = message;
+        this.warning = warning;
+    }
+
+    /**
+     * @return the diagnostic or null if the line does not refer to a file
+     */
+    public static ProtocDiagnostic parse(String text) {
+        String file;
+        int line = 0;
+        int column = 0;
+        String message;
+        Matcher matcher = WITH_POSITION.matcher(text);
+        if (matcher.matches()) {
+            file = matcher.group(1);
+            line = Integer.parseInt(matcher.group(2));
+            column = Integer.parseInt(matcher.group(3));
+            message = matcher.group(4);
+        } else {
+            matcher = WITHOUT_POSITION.matcher(text);
+            if (!matcher.matches()) {
+                return null;
+            }
+            file = matcher.group(1);
+            message = matcher.group(2);
+        }
+        boolean warning = message.startsWith(WARNING);
+        if (warning) {
+            message = message.substring(WARNING.length()).trim();
+        }
+        return new ProtocDiagnostic(file, line, column, message, warning);
+    }
+
+    /**
+     * @return file name as printed by protoc, usually relative to an include directory
+     */
+    public String getFile() {
+        return file;
+    }
+
+    public int getLine() {
+        return line;
+    }
+
+    public int getColumn() {
+        return column;
+    }
+
+    public String getMessage() {
+        return message;
+    }
+
+    public boolean isWarning() {
+        return warning;
+    }
+}
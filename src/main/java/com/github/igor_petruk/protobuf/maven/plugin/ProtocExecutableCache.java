@@ -0,0 +1,122 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Locale;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Keeps protoc executables resolved from the Maven repository in a cache
+ * directory shared by all builds on the machine. The local repository does not
+ * keep the executable bit, so every artifact is copied into a directory named
+ * after its checksum and made executable there. A copy is verified against the
+ * checksum once per build before it is used.
+ */
+public class ProtocExecutableCache {
+
+    private static final Set<String> VERIFIED = Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+    private final File cacheDirectory;
+
+    public ProtocExecutableCache(File cacheDirectory) {
+        this.cacheDirectory = cacheDirectory;
+    }
+
+    /**
+     * @return classifier of the protoc artifact for the current platform, like
+     * linux-x86_64, or null if protoc is not published for it
+     */
+    public static String getClassifier() {
+        String os = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH);
+        String arch = System.getProperty("os.arch", "").toLowerCase(Locale.ENGLISH);
+        String osName;
+        if (os.startsWith("linux")) {
+            osName = "linux";
+        } else if (os.startsWith("mac") || os.startsWith("darwin")) {
+            osName = "osx";
+        } else if (os.startsWith("windows")) {
+            osName = "windows";
+        } else {
+            return null;
+        }
+        String archName;
+        if (arch.equals("amd64") || arch.equals("x86_64")) {
+            archName = "x86_64";
+        } else if (arch.equals("x86") || arch.matches("i[3-6]86")) {
+            archName = "x86_32";
+        } else if (arch.equals("aarch64") || arch.equals("arm64")) {
+            archName = "aarch_64";
+        } else if (arch.equals("ppc64le")) {
+            archName = "ppcle_64";
+        } else if (arch.equals("s390x")) {
+            archName = "s390_64";
+        } else {
+            return null;
+        }
+        return osName + "-" + archName;
+    }
+
+    /**
+     * @param artifact protoc executable from the local repository
+     * @return executable copy of the artifact
+     */
+    public File install(File artifact) throws IOException {
+        String checksum = Digests.digest(artifact);
+        File directory = new File(cacheDirectory, checksum);
+        // The artifacts have the .exe extension on every platform
+        boolean windows = System.getProperty("os.name", "").toLowerCase(Locale.ENGLISH).startsWith("windows");
+        File executable = new File(directory, windows ? "protoc.exe" : "protoc");
+        String key = executable.getAbsolutePath();
+        if (VERIFIED.contains(key) && executable.canExecute()) {
+            return executable;
+        }
+        if (executable.isFile() && executable.canExecute() && checksum.equals(Digests.digest(executable))) {
+            VERIFIED.add(key);
+            return executable;
+        }
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Unable to create " + directory);
+        }
+        File temp = new File(directory, executable.getName() + "-" + UUID.randomUUID() + ".tmp");
+        try {
+            FileUtils.copyFile(artifact, temp);
+            String actual = Digests.digest(temp);
+            if (!checksum.equals(actual)) {
+                throw new IOException("Checksum of " + artifact + " is " + actual + ", expected " + checksum);
+            }
+            if (!temp.setExecutable(true, false)) {
+                throw new IOException("Unable to make " + temp + " executable");
+            }
+            executable.delete();
+            if (!temp.renameTo(executable) && !executable.isFile()) {
+                throw new IOException("Unable to move " + temp + " to " + executable);
+            }
+        } finally {
+            temp.delete();
+        }
+        VERIFIED.add(key);
+        return executable;
+    }
+}
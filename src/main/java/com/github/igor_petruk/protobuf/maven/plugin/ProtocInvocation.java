@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single run of protoc: one file or a batch of files from the same input directory.
+ */
+public class ProtocInvocation {
+    private final File input;
+    private final List<File> files;
+    private final Map<String, List<String>> outputs = new LinkedHashMap<String, List<String>>();
+
+    public ProtocInvocation(File input, List<File> files) {
+        this.input = input;
+        this.files = files;
+    }
+
+    /**
+     * @return identifier derived from the file list, stable between builds
+     */
+    public String getId() {
+        StringBuilder paths = new StringBuilder();
+        for (File file : files) {
+            paths.append(file.getAbsolutePath()).append('\n');
+        }
+        return Digests.digest(paths.toString()).substring(0, 16);
+    }
+
+    public File getInput() {
+        return input;
+    }
+
+    public List<File> getFiles() {
+        return files;
+    }
+
+    /**
+     * @return files generated by the generator, relative to its output directory,
+     * if they were tracked
+     */
+    public List<String> getOutputs(String generator) {
+        List<String> files = outputs.get(generator);
+        return files == null ? new ArrayList<String>() : files;
+    }
+
+    public void addOutputs(String generator, List<String> files) {
+        List<String> existing = outputs.get(generator);
+        if (existing == null) {
+            outputs.put(generator, new ArrayList<String>(files));
+        } else {
+            existing.addAll(files);
+        }
+    }
+
+    public boolean isBatch() {
+        return files.size() > 1;
+    }
+
+    @Override
+    public String toString() {
+        return isBatch() ? files.size() + " files from " + input : files.get(0).toString();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Runs protoc through the protoc-jar library, which ships protoc binaries for
+ * common platforms, so nothing has to be installed on the machine.
+ * protoc-jar extracts the binary and forks it like the native backend does,
+ * protoc never runs inside the JVM. Only the installation is saved, not the
+ * process start.
+ * protoc-jar is not a dependency of the plugin, it has to be added to the
+ * plugin dependencies in the pom.
+ */
+public class ProtocJarBackend implements ProtocBackend {
+
+    private static final String PROTOC_CLASS = "com.github.os72.protocjar.Protoc";
+
+    private final Method runProtoc;
+    private final String version;
+
+    /**
+     * @param version protoc version to run, like "3.5.1", or null for the default one of protoc-jar
+     */
+    public ProtocJarBackend(String version) throws ClassNotFoundException, NoSuchMethodException {
+        Class<?> protoc = Class.forName(PROTOC_CLASS, true, ProtocJarBackend.class.getClassLoader());
+        this.runProtoc = protoc.getMethod("runProtoc", String[].class, OutputStream.class, OutputStream.class);
+        this.version = version;
+    }
+
+    @Override
+    public String getName() {
+        return "protoc-jar" + (version == null ? "" : " " + version);
+    }
+
+    @Override
+    public ProtocResult execute(List<String> arguments) throws IOException, InterruptedException {
+        List<String> args = new ArrayList<String>(arguments.size() + 1);
+        if (version != null) {
+            args.add("-v" + version);
+        }
+        args.addAll(arguments);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteArrayOutputStream err = new ByteArrayOutputStream();
+        int exitCode;
+        try {
+            exitCode = (Integer) runProtoc.invoke(null, args.toArray(new String[0]), out, err);
+        } catch (IllegalAccessException e) {
+            throw new IOException("Unable to call " + PROTOC_CLASS, e);
+        } catch (InvocationTargetException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof InterruptedException) {
+                throw (InterruptedException) cause;
+            }
+            throw new IOException("protoc-jar failed", cause);
+        }
+        return new ProtocResult(exitCode, lines(out), lines(err));
+    }
+
+    private static List<String> lines(ByteArrayOutputStream stream) throws IOException {
+        String text = stream.toString("UTF-8");
+        if (text.length() == 0) {
+            return new ArrayList<String>();
+        }
+        return new ArrayList<String>(Arrays.asList(text.split("\r?\n")));
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+/**
+ * A protoc plugin, such as grpc-java, configured in the pom:
+ * <pre>
+ * &lt;protocPlugins&gt;
+ *     &lt;protocPlugin&gt;
+ *         &lt;id&gt;grpc-java&lt;/id&gt;
+ *         &lt;executable&gt;/usr/bin/protoc-gen-grpc-java&lt;/executable&gt;
+ *     &lt;/protocPlugin&gt;
+ * &lt;/protocPlugins&gt;
+ * </pre>
+ */
+public class ProtocPlugin {
+
+    /**
+     * Plugin name, protoc is called with --&lt;id&gt;_out.
+     */
+    private String id;
+
+    /**
+     * Path to the plugin executable. If not set, protoc looks for
+     * protoc-gen-&lt;id&gt; on PATH.
+     */
+    private String executable;
+
+    /**
+     * Optional parameters passed to the plugin.
+     */
+    private String options;
+
+    public String getId() {
+        return id;
+    }
+
+    public String getExecutable() {
+        return executable;
+    }
+
+    public String getOptions() {
+        return options;
+    }
+}
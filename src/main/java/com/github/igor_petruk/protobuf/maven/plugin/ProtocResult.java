@@ -0,0 +1,63 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.util.List;
+
+/**
+ * Exit code and output of a finished protoc process.
+ */
+public class ProtocResult {
+    private final int exitCode;
+    private final List<String> output;
+    private final List<String> errors;
+    private final boolean timedOut;
+
+    public ProtocResult(int exitCode, List<String> output, List<String> errors) {
+        this(exitCode, output, errors, false);
+    }
+
+    public ProtocResult(int exitCode, List<String> output, List<String> errors, boolean timedOut) {
+        this.exitCode = exitCode;
+        this.output = output;
+        this.errors = errors;
+        this.timedOut = timedOut;
+    }
+
+    public int getExitCode() {
+        return exitCode;
+    }
+
+    public List<String> getOutput() {
+        return output;
+    }
+
+    public List<String> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return true if protoc was killed because it ran longer than allowed
+     */
+    public boolean isTimedOut() {
+        return timedOut;
+    }
+
+    public boolean isSuccess() {
+        return exitCode == 0 && !timedOut;
+    }
+}
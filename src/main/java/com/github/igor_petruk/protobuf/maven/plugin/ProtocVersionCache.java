@@ -0,0 +1,146 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers the version reported by 'protoc --version', so that it is not
+ * forked again for every module. Entries are keyed by the resolved executable
+ * path together with its size and modification time, so replacing the
+ * executable invalidates the entry. The in-memory part lives as long as the
+ * plugin class loader, an optional file keeps the entries between builds.
+ */
+public class ProtocVersionCache {
+
+    private static final Map<String, String> SESSION_CACHE = new ConcurrentHashMap<String, String>();
+
+    private final File file;
+
+    /**
+     * @param file properties file to persist versions in, or null to keep them in memory only
+     */
+    public ProtocVersionCache(File file) {
+        this.file = file;
+    }
+
+    /**
+     * @return cache key for the command, it is only stable for the current build
+     * if the command cannot be found on the file system
+     */
+    public static String key(String protocCommand) {
+        File executable = resolveExecutable(protocCommand);
+        if (executable == null) {
+            return protocCommand;
+        }
+        return executable.getAbsolutePath() + "|" + executable.length() + "|" + executable.lastModified();
+    }
+
+    public static boolean isPersistable(String key) {
+        return key.indexOf('|') >= 0;
+    }
+
+    /**
+     * Looks the command up the same way the operating system does, by checking
+     * PATH when the command has no directory part.
+     * @return the executable or null if it was not found
+     */
+    public static File resolveExecutable(String command) {
+        File direct = new File(command);
+        if (command.indexOf('/') >= 0 || command.indexOf(File.separatorChar) >= 0) {
+            return direct.isFile() ? direct.getAbsoluteFile() : null;
+        }
+        String path = System.getenv("PATH");
+        if (path == null) {
+            return null;
+        }
+        String[] suffixes = {"", ".exe", ".bat", ".cmd"};
+        for (String dir : path.split(File.pathSeparator)) {
+            for (String suffix : suffixes) {
+                File candidate = new File(dir, command + suffix);
+                if (candidate.isFile()) {
+                    return candidate.getAbsoluteFile();
+                }
+            }
+        }
+        return null;
+    }
+
+    public String get(String key) {
+        String version = SESSION_CACHE.get(key);
+        if (version == null && file != null && isPersistable(key)) {
+            version = load().getProperty(key);
+            if (version != null) {
+                SESSION_CACHE.put(key, version);
+            }
+        }
+        return version;
+    }
+
+    public void put(String key, String version) throws IOException {
+        SESSION_CACHE.put(key, version);
+        if (file != null && isPersistable(key)) {
+            synchronized (ProtocVersionCache.class) {
+                Properties properties = load();
+                properties.setProperty(key, version);
+                file.getParentFile().mkdirs();
+                // Builds in other processes write the same file, each through a temporary
+                // file of its own, and readers only ever see a complete file
+                File temp = File.createTempFile(file.getName(), ".tmp", file.getParentFile());
+                try {
+                    OutputStream out = new FileOutputStream(temp);
+                    try {
+                        properties.store(out, "protoc versions");
+                    } finally {
+                        out.close();
+                    }
+                    Files.move(temp.toPath(), file.toPath(),
+                            StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+                } finally {
+                    temp.delete();
+                }
+            }
+        }
+    }
+
+    private Properties load() {
+        Properties properties = new Properties();
+        if (file.isFile()) {
+            try {
+                InputStream in = new FileInputStream(file);
+                try {
+                    properties.load(in);
+                } finally {
+                    in.close();
+                }
+            } catch (IOException e) {
+                // A broken cache only means protoc is asked again
+            }
+        }
+        return properties;
+    }
+}
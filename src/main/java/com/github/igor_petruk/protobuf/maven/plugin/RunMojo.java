@@ -21,24 +21,58 @@ import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.artifact.metadata.ArtifactMetadataSource;
 import org.apache.maven.artifact.repository.ArtifactRepository;
 import org.apache.maven.artifact.resolver.ArtifactCollector;
+import org.apache.maven.artifact.resolver.ArtifactNotFoundException;
+import org.apache.maven.artifact.resolver.ArtifactResolutionException;
+import org.apache.maven.artifact.resolver.ArtifactResolver;
 import org.apache.maven.artifact.resolver.filter.ArtifactFilter;
 import org.apache.maven.artifact.versioning.DefaultArtifactVersion;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.project.MavenProject;
+import org.apache.maven.project.MavenProjectHelper;
 import org.apache.maven.shared.dependency.tree.DependencyNode;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilder;
 import org.apache.maven.shared.dependency.tree.DependencyTreeBuilderException;
+import com.google.protobuf.DescriptorProtos.FileDescriptorProto;
+import com.google.protobuf.DescriptorProtos.FileDescriptorSet;
 import org.codehaus.plexus.util.FileUtils;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
 import com.github.igor_petruk.protobuf.maven.plugin.ProtoVersion.VersionValidationStrategy;
 
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+import java.security.CodeSource;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
-import java.util.Scanner;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
 
 /**
  * @goal run
@@ -49,6 +83,8 @@ public class RunMojo extends AbstractMojo {
 
     private static final String DEFAULT_INPUT_DIR= "/src/main/protobuf/".replace('/',File.separatorChar);
     private static final String VERSION_KEY="--version";
+    private static final String PROTOC_GROUP_ID="com.google.protobuf";
+    private static final String PROTOC_ARTIFACT_ID="protoc";
 
     /**
      * The Maven project.
@@ -59,6 +95,22 @@ public class RunMojo extends AbstractMojo {
      */
     private MavenProject project;
 
+    /**
+     * The current build session.
+     *
+     * @parameter expression="${session}"
+     * @readonly
+     */
+    private MavenSession session;
+
+    /**
+     * The execution of this goal, which owns the generated files.
+     *
+     * @parameter expression="${mojoExecution}"
+     * @readonly
+     */
+    private MojoExecution mojoExecution;
+
     /**
      * The artifact repository to use.
      *
@@ -104,9 +156,30 @@ public class RunMojo extends AbstractMojo {
      */
     private DependencyTreeBuilder dependencyTreeBuilder;
 
+    /**
+     * The artifact resolver to use.
+     *
+     * @component
+     * @required
+     * @readonly
+     */
+    private ArtifactResolver artifactResolver;
+
+    /**
+     * The remote repositories to resolve protoc from.
+     *
+     * @parameter expression="${project.remoteArtifactRepositories}"
+     * @required
+     * @readonly
+     */
+    private List<?> remoteRepositories;
+
     /** @component */
     private BuildContext buildContext;
 
+    /** @component */
+    private MavenProjectHelper projectHelper;
+
     /**
      * Input directories that have *.protoc files (or the configured extension).
      * If none specified then <b>src/main/protobuf</b> is used.
@@ -121,12 +194,27 @@ public class RunMojo extends AbstractMojo {
     private File[] includeDirectories;
 
     /**
-     * If this parameter is set to "true" output folder is cleaned prior to build.
-     * This will not let old and new classes coexist after package or class
-     * rename in your IDE cache or after non-clean rebuild.
-     * Set this to "false" if you are doing multiple plugin invocations per build
-     * and it is important to preserve output folder contents
-     * @parameter expression="${cleanOutputFolder}" default-value="true"
+     * Setting to "true" adds proto files packaged in dependency jars to the include path.
+     * Every jar is extracted once per machine into a cache in the local repository,
+     * keyed by the jar checksum, and shared by all modules and builds.
+     * @parameter expression="${extractDependencyProtos}" default-value="false"
+     * @required
+     */
+    private boolean extractDependencyProtos;
+
+    /**
+     * If this parameter is set to "true" all files are generated again and every
+     * file in the output folder that was not generated is deleted, except files
+     * of other plugin executions writing to the same folder.
+     * Without it the plugin still records which proto file and generator every
+     * generated file came from, and deletes generated files of removed or
+     * changed proto files that were not generated again. So old and new classes
+     * do not coexist after a package or class rename either way. When there is no
+     * record of an earlier run, like after an upgrade of the plugin, the output
+     * folder is cleaned as if this parameter was set.
+     * Files are generated into a staging folder first and only copied over when
+     * their content changed, so unchanged sources are not recompiled.
+     * @parameter expression="${cleanOutputFolder}" default-value="false"
      * @required
      */
     private boolean cleanOutputFolder;
@@ -156,6 +244,20 @@ public class RunMojo extends AbstractMojo {
      */
     private String extension;
 
+    /**
+     * Glob patterns of files to compile, relative to every input directory.
+     * Input directories are searched recursively.
+     * Defaults to all files with the configured extension, "**&#47;*.proto".
+     * @parameter
+     */
+    private String[] includes;
+
+    /**
+     * Glob patterns of files to skip, relative to every input directory.
+     * @parameter
+     */
+    private String[] excludes;
+
     /**
      * Setting to "true" disables version check between 'protoc' and the protobuf library used by module
      * @parameter expression="${ignoreVersions}" default-value="false"
@@ -190,6 +292,244 @@ public class RunMojo extends AbstractMojo {
      */
     private String protocCommand;
 
+    /**
+     * Setting to "true" takes protoc from the Maven repository instead of
+     * protocCommand. The com.google.protobuf:protoc executable for the current
+     * platform is resolved in the version of the protobuf library dependency,
+     * or in protocArtifactVersion, and copied to a verified cache in the local
+     * repository. Its version is known, so protoc is not run to check it.
+     * Works offline once the artifact is in the local repository.
+     * @parameter expression="${resolveProtoc}" default-value="false"
+     * @required
+     */
+    private boolean resolveProtoc;
+
+    /**
+     * Version of the protoc artifact to resolve when resolveProtoc is set.
+     * Defaults to the version of the protobuf library dependency.
+     * @parameter expression="${protocArtifactVersion}"
+     */
+    private String protocArtifactVersion;
+
+    /**
+     * Protoc plugins to run in addition to the built-in generators,
+     * for example grpc-java. See {@link ProtocPlugin}.
+     * @parameter
+     */
+    private ProtocPlugin[] protocPlugins;
+
+    /**
+     * Output directories of the generators, to generate into several directories
+     * with a single execution. The files are parsed once and every generator runs
+     * in the same protoc runs. When set, outputDirectory, addSources, javaOutput,
+     * cppOutput and pythonOutput are not used. See {@link OutputTarget}.
+     * @parameter
+     */
+    private OutputTarget[] outputTargets;
+
+    /**
+     * Setting to "true" makes protoc parse the files only once into a descriptor set
+     * in the build directory. Every generator, built-in or plugin, is then run
+     * concurrently from that descriptor set instead of parsing the sources again.
+     * Requires protoc 3.0 or newer.
+     * @parameter expression="${descriptorPipeline}" default-value="false"
+     * @required
+     */
+    private boolean descriptorPipeline;
+
+    /**
+     * The version reported by 'protoc --version' is always remembered for the rest
+     * of the build, keyed by the executable path, size and modification time.
+     * Setting this to "true" also stores it in the local repository, so that
+     * later builds do not run protoc to find out its version.
+     * @parameter expression="${cacheProtocVersion}" default-value="false"
+     * @required
+     */
+    private boolean cacheProtocVersion;
+
+    /**
+     * How protoc is run.
+     * <ul>
+     * <li>native: run the executable given by protocCommand.</li>
+     * <li>protoc-jar: run a protoc bundled with com.github.os72:protoc-jar, which
+     * has to be added to the plugin dependencies. The protoc version matching the
+     * protobuf library is used, so protoc does not need to be installed. protoc-jar
+     * still starts protoc as a separate process for every run, like native does,
+     * so it is not faster, and protocTimeout does not apply to it.</li>
+     * </ul>
+     * @parameter expression="${compilerBackend}" default-value="native"
+     * @required
+     */
+    private String compilerBackend;
+
+    /**
+     * Maximum time in seconds a single protoc run may take before it is killed
+     * and the build fails. 0 means no limit. Only applies to the native backend.
+     * @parameter expression="${protocTimeout}" default-value="0"
+     * @required
+     */
+    private int protocTimeout;
+
+    /**
+     * Setting to "true" only checks the proto files and generates nothing.
+     * All files are parsed together by as few protoc runs as the command line
+     * allows, which reports syntax errors, unresolved imports and duplicate
+     * symbols. The parsed descriptors are then checked against namingRules and,
+     * if it is set, against baselineDescriptorSet. The parsed descriptor set is
+     * written to the build directory, so it can be kept as the next baseline.
+     * @parameter expression="${validateOnly}" default-value="false"
+     * @required
+     */
+    private boolean validateOnly;
+
+    /**
+     * How validateOnly treats names that do not follow the protobuf style guide:
+     * "warn", "error" or "none".
+     * @parameter expression="${namingRules}" default-value="warn"
+     * @required
+     */
+    private String namingRules;
+
+    /**
+     * Descriptor set of an earlier version of the proto files. With validateOnly,
+     * removed messages, fields, enum values, services and methods, and fields
+     * whose number changed name, type or label fail the build.
+     * @parameter expression="${baselineDescriptorSet}"
+     */
+    private File baselineDescriptorSet;
+
+    /**
+     * Setting to "true" skips the goal when the configuration, the size and
+     * modification time of the proto files and the generated files are the same
+     * as after the last successful run. Only the output directory is added to the
+     * sources then, dependencies are not inspected and protoc is not run.
+     * @parameter expression="${skipUpToDate}" default-value="false"
+     * @required
+     */
+    private boolean skipUpToDate;
+
+    /**
+     * Setting to "true" passes all files of an input directory to a single protoc
+     * invocation instead of running protoc once per file. Long file lists are
+     * split so that the command line never exceeds the OS limit.
+     * If a batch fails, its files are compiled one by one to report the failing ones.
+     * @parameter expression="${batch}" default-value="false"
+     * @required
+     */
+    private boolean batch;
+
+    /**
+     * Number of protoc processes to run at the same time. Accepts a plain number
+     * or a multiplier of available cores, like "1C" or "0.5C".
+     * The build fails on the first protoc error.
+     * @parameter expression="${threads}" default-value="1"
+     * @required
+     */
+    private String threads;
+
+    /**
+     * Setting to "true" records in the state file in the build directory fingerprints
+     * of all proto files, their imports, the protoc version and the generator flags.
+     * Only files that changed since the last build are passed to protoc, and
+     * generated files of removed or changed protos are deleted. The output folder
+     * is only cleaned when there is no usable state file.
+     * @parameter expression="${staleCheck}" default-value="false"
+     * @required
+     */
+    private boolean staleCheck;
+
+    /**
+     * Setting to "true" writes timings of the execution as JSON to
+     * the protobuf-maven-plugin folder in the build directory.
+     * A summary is always printed to the log.
+     * @parameter expression="${writeMetrics}" default-value="false"
+     * @required
+     */
+    private boolean writeMetrics;
+
+    /**
+     * Setting to "true" shares generated files between modules of a reactor build.
+     * When another module runs protoc with the same files, imports, flags and
+     * protoc version, its result is copied instead of running protoc again.
+     * This is safe with parallel builds, the second module waits for the first.
+     * @parameter expression="${shareGeneration}" default-value="false"
+     * @required
+     */
+    private boolean shareGeneration;
+
+    /**
+     * Setting to "true" packages the generated files together with a descriptor
+     * set of the proto files into a jar, which is attached to the project with
+     * generatedSourcesClassifier. The jar records a key made of the contents of
+     * the proto files and their imports, the protoc version and the generators.
+     * @parameter expression="${attachGeneratedSources}" default-value="false"
+     * @required
+     */
+    private boolean attachGeneratedSources;
+
+    /**
+     * Setting to "true" looks for a jar attached by attachGeneratedSources to each
+     * direct dependency. When its key matches the files this execution would
+     * generate, they are unpacked from the jar and protoc is not run.
+     * @parameter expression="${reuseGeneratedSources}" default-value="false"
+     * @required
+     */
+    private boolean reuseGeneratedSources;
+
+    /**
+     * Classifier of the jar with generated sources, for attachGeneratedSources
+     * and reuseGeneratedSources.
+     * @parameter expression="${generatedSourcesClassifier}" default-value="protobuf-sources"
+     * @required
+     */
+    private String generatedSourcesClassifier;
+
+    /**
+     * Directory of a cache for generated sources shared between builds, for example
+     * on a network drive used by all CI agents. Before running protoc the generated
+     * files are looked up by a digest of the proto files, the protoc version and the
+     * generator options, and unpacked when they are found. Otherwise they are stored
+     * after protoc ran. Failures to read or write the cache only produce warnings.
+     * @parameter expression="${generationCache}"
+     */
+    private String generationCache;
+
+    /**
+     * Setting to "false" only reads from generationCache and never stores anything,
+     * for builds that should not publish their results.
+     * @parameter expression="${updateGenerationCache}" default-value="true"
+     * @required
+     */
+    private boolean updateGenerationCache;
+
+    private String protocVersion;
+
+    private ProtocBackend backend;
+
+    private ProtoImportScanner importScanner;
+
+    private final List<File> changedOutputs = Collections.synchronizedList(new ArrayList<File>());
+
+    private BuildMetrics metrics = new BuildMetrics();
+
+    private InvocationCosts costs;
+
+    private List<OutputTarget> targets;
+
+    /** Key of the generated files in archives and the generation cache, once it is computed */
+    private String archiveKey;
+
+    /** Directories with proto files extracted from dependencies, null until they are extracted */
+    private List<File> dependencyProtoDirectories;
+
+    /** Proto files known to have changed, null to ask the build context */
+    private Set<File> knownChanges;
+
+    /** Limits protoc processes to the configured number of threads, also across nested pools */
+    private Semaphore protocPermits;
+
+    private final Object logLock = new Object();
+
     /**
      * This parameter allows to override protobuf library groupId
      * @parameter expression="${protobufGroupId}" default-value="com.google.protobuf"
@@ -220,18 +560,93 @@ public class RunMojo extends AbstractMojo {
 
     public void execute() throws MojoExecutionException
     {
-        if (project.getPackaging()!=null &&
-                "pom".equals(project.getPackaging().toLowerCase())){
+        if (isPomProject()){
             getLog().info("Skipping 'pom' packaged project");
             return;
         }
+        resolveDefaults();
+        resolveTargets();
+        String inputFingerprint = null;
+        boolean upToDate = false;
+        if (skipUpToDate){
+            long checkStart = BuildMetrics.now();
+            inputFingerprint = getInputFingerprint();
+            upToDate = (inputFingerprint+getOutputFingerprint())
+                    .equals(GenerationFingerprint.load(getFingerprintFile()));
+            metrics.recordPhase("up-to-date check", checkStart);
+            if (!upToDate){
+                // A failed run must not leave a fingerprint that claims everything is up to date
+                getFingerprintFile().delete();
+            }
+        }
+        if (upToDate){
+            getLog().info(validateOnly ? "Proto files did not change since they were validated"
+                    : "Generated files are up to date");
+        }else{
+            initializeCompiler();
+            if (validateOnly){
+                performValidation();
+            }else{
+                if (!restoreGeneratedSources()){
+                    performProtoCompilation();
+                    if (generationCache!=null && updateGenerationCache){
+                        storeInCache();
+                    }
+                }
+                if (attachGeneratedSources){
+                    writeGeneratedSourcesArchive();
+                }
+            }
+            if (skipUpToDate){
+                try {
+                    GenerationFingerprint.save(getFingerprintFile(), inputFingerprint+getOutputFingerprint());
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Unable to save fingerprint to "+getFingerprintFile(), e);
+                }
+            }
+        }
+        if (!validateOnly){
+            publishOutputs();
+        }
+
+        metrics.logSummary(getLog());
+        if (writeMetrics){
+            File metricsFile = getWorkFile("-metrics.json");
+            try {
+                metrics.writeJson(metricsFile);
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to write metrics to "+metricsFile, e);
+            }
+        }
+    }
+
+    /**
+     * Finds the protobuf dependency and the protoc executable, checks that their
+     * versions match and creates the backend that runs protoc.
+     */
+    private void initializeCompiler() throws MojoExecutionException{
+        long start = BuildMetrics.now();
         String dependencyVersion = getProtobufVersion();
+        metrics.recordPhase("dependency lookup", start);
         getLog().info("Protobuf dependency version " + dependencyVersion);
-        String executableVersion = detectProtobufVersion(dependencyVersion);
+        String executableVersion = null;
+        if (resolveProtoc){
+            start = BuildMetrics.now();
+            executableVersion = protocArtifactVersion!=null ? protocArtifactVersion : dependencyVersion;
+            protocCommand = resolveProtocExecutable(executableVersion).getAbsolutePath();
+            metrics.recordPhase("protoc resolution", start);
+        }
+        backend = createBackend(dependencyVersion);
+        if (executableVersion==null){
+            start = BuildMetrics.now();
+            executableVersion = detectProtobufVersion(dependencyVersion);
+            metrics.recordPhase("version probe", start);
+        }
         if (executableVersion==null){
-            throw new MojoExecutionException("Unable to find '"+protocCommand+"'");
+            throw new MojoExecutionException("Unable to find '"+backend.getName()+"'");
         }
         getLog().info("'protoc' executable version "+executableVersion);
+        protocVersion = executableVersion;
         if (!ignoreVersions){
             if (dependencyVersion==null){
                 throw new MojoExecutionException("Protobuf library dependency not found in pom: "+protobufGroupId+":" +protobufArtifactId);
@@ -243,122 +658,1948 @@ public class RunMojo extends AbstractMojo {
                 throw new MojoExecutionException("Protobuf installation version does not match Protobuf library version");
             }
         }
-        // Compatablity measures
-        addSources = addSources.toLowerCase().trim();
-        if ("true".equals(addSources)){
-            addSources = "main";
+    }
+
+    /**
+     * Makes the generated files part of the project, the same way whether they were
+     * just generated, restored from an archive or already up to date.
+     */
+    private void publishOutputs(){
+        addSourceRoots();
+        refreshChangedOutputs();
+        if (attachGeneratedSources){
+            projectHelper.attachArtifact(project, "jar", generatedSourcesClassifier, getArchiveFile());
+            getLog().info("Attached generated files as "+generatedSourcesClassifier);
         }
+    }
 
-        if (outputDirectory==null){
-            String subdir = "generated-"+("test".equals(addSources)?"test-":"")+"sources";
-            outputDirectory = new File(project.getBuild().getDirectory()+File.separator+subdir+File.separator);
+    private void refreshChangedOutputs(){
+        for (File changed: changedOutputs){
+            buildContext.refresh(changed);
         }
+    }
 
-        performProtoCompilation();
+    /**
+     * Generates files again after the given proto files changed, together with every
+     * file that imports them. For goals that keep running after the first generation,
+     * which may have started with files that were already up to date.
+     */
+    protected void regenerate(Collection<File> changed) throws MojoExecutionException{
+        if (backend==null){
+            initializeCompiler();
+        }
+        Set<File> files = new HashSet<File>();
+        for (File file: changed){
+            files.add(canonical(file));
+        }
+        knownChanges = files;
+        changedOutputs.clear();
+        metrics = new BuildMetrics();
+        try {
+            performProtoCompilation();
+        } finally {
+            knownChanges = null;
+        }
+        refreshChangedOutputs();
     }
 
-    private void performProtoCompilation() throws MojoExecutionException{
-        if (includeDirectories!=null && includeDirectories.length>0){
-            getLog().info("Include directories:");
+    /**
+     * @return input and include directories configured for this execution
+     */
+    protected List<File> getSourceDirectories(){
+        List<File> directories = new ArrayList<File>();
+        for (File input: inputDirectories){
+            if (input!=null){
+                directories.add(input);
+            }
+        }
+        if (includeDirectories!=null){
             for (File include: includeDirectories){
-                getLog().info("    "+include);
+                if (dependencyProtoDirectories==null || !dependencyProtoDirectories.contains(include)){
+                    directories.add(include);
+                }
             }
         }
-        getLog().info("Input directories:");
-        for (File input: inputDirectories){
-            getLog().info("    "+input);
+        return directories;
+    }
+
+    protected String getExtension(){
+        return extension;
+    }
+
+    protected boolean isPomProject(){
+        return project.getPackaging()!=null && "pom".equals(project.getPackaging().toLowerCase());
+    }
+
+    private void resolveDefaults(){
+        // Compatablity measures
+        addSources = addSources.toLowerCase().trim();
+        if ("true".equals(addSources)){
+            addSources = "main";
+        }
+
+        if (outputDirectory==null){
+            String subdir = "generated-"+("test".equals(addSources)?"test-":"")+"sources";
+            outputDirectory = new File(project.getBuild().getDirectory()+File.separator+subdir+File.separator);
         }
         if (includeDirectories==null || inputDirectories.length==0){
             File inputDir = new File(project.getBasedir().getAbsolutePath() + DEFAULT_INPUT_DIR);
-            getLog().info("    "+inputDir+" (using default)");
+            getLog().info("Using default input directory "+inputDir);
             inputDirectories = new File[]{inputDir};
         }
+    }
 
-        getLog().info("Output directory: "+outputDirectory);
-        File f = outputDirectory;
-        if ( !f.exists() )
-        {
-            getLog().info(f+" does not exist. Creating...");
-            f.mkdirs();
+    private static String normalizeAddSources(String addSources){
+        String value = addSources==null ? "main" : addSources.toLowerCase().trim();
+        return "true".equals(value) ? "main" : value;
+    }
+
+    /**
+     * Checks the configured output targets, or describes the single output directory
+     * of the execution as a target.
+     */
+    private void resolveTargets() throws MojoExecutionException{
+        targets = new ArrayList<OutputTarget>();
+        if (outputTargets==null || outputTargets.length==0){
+            List<String> generators = new ArrayList<String>();
+            for (Generator generator: getGenerators()){
+                generators.add(generator.getName());
+            }
+            targets.add(new OutputTarget(generators, outputDirectory, addSources));
+            return;
         }
-        if (cleanOutputFolder){
-            try {
-                getLog().info("Cleaning "+f);
-                FileUtils.cleanDirectory(f);
-            } catch (IOException e) {
-                e.printStackTrace();
+        if (attachGeneratedSources || reuseGeneratedSources || generationCache!=null){
+            throw new MojoExecutionException("attachGeneratedSources, reuseGeneratedSources and generationCache "
+                    +"can not be used together with outputTargets");
+        }
+        Set<String> known = new HashSet<String>(Arrays.asList("java", "cpp", "python"));
+        if (protocPlugins!=null){
+            for (ProtocPlugin plugin: protocPlugins){
+                known.add(plugin.getId());
             }
         }
-
-        final ProtoFileFilter PROTO_FILTER = new ProtoFileFilter(extension);
-
-        for (File input: inputDirectories){
-            if (input==null){
-                continue;
+        Set<String> used = new HashSet<String>();
+        for (OutputTarget target: outputTargets){
+            if (target.getOutputDirectory()==null){
+                throw new MojoExecutionException("Output target "+target+" has no outputDirectory");
             }
-            getLog().info("Directory "+input);
-            if (input.exists() && input.isDirectory()){
-                File[] files = input.listFiles(PROTO_FILTER);
-                for (File file: files){
-                    if (cleanOutputFolder || buildContext.hasDelta(file.getPath())){
-                        processFile(file, outputDirectory);
-                    }else{
-                        getLog().info("Not changed "+file);
-                    }
+            if (target.getGenerators().isEmpty()){
+                throw new MojoExecutionException("Output target "+target+" has no generators");
+            }
+            for (String generator: target.getGenerators()){
+                if (!known.contains(generator)){
+                    throw new MojoExecutionException("Unknown generator '"+generator+"' in output target "+target
+                            +", use java, cpp, python or the id of a protoc plugin");
                 }
-            }else{
-                if (input.exists())
-                    getLog().warn(input+" is not a directory");
-                else
-                    getLog().warn(input+" does not exist");
+                if (!used.add(generator)){
+                    throw new MojoExecutionException("Generator '"+generator+"' is used by more than one output target");
+                }
+            }
+            String targetAddSources = normalizeAddSources(target.getAddSources());
+            if (!Arrays.asList("main", "test", "none").contains(targetAddSources)){
+                throw new MojoExecutionException("Invalid addSources value '"+target.getAddSources()
+                        +"' in output target "+target+", use main, test or none");
+            }
+            targets.add(new OutputTarget(target.getGenerators(), target.getOutputDirectory(), targetAddSources));
+        }
+        // Files of the execution, like the fingerprint, are named after the first target
+        outputDirectory = targets.get(0).getOutputDirectory();
+    }
+
+    private File getTargetDirectory(String generator){
+        for (OutputTarget target: targets){
+            if (target.getGenerators().contains(generator)){
+                return target.getOutputDirectory();
             }
         }
-        boolean mainAddSources = "main".endsWith(addSources);
-        boolean testAddSources = "test".endsWith(addSources);
-        if (mainAddSources){
-            getLog().info("Adding generated classes to classpath");
-            project.addCompileSourceRoot( outputDirectory.getAbsolutePath() );
+        return outputDirectory;
+    }
+
+    /**
+     * Digest of the configuration and of the size and modification time of every
+     * file the generated sources depend on. Nothing is run or read to compute it.
+     */
+    private String getInputFingerprint() throws MojoExecutionException{
+        GenerationFingerprint fingerprint = new GenerationFingerprint();
+        CodeSource codeSource = RunMojo.class.getProtectionDomain().getCodeSource();
+        if (codeSource!=null){
+            fingerprint.addFile(new File(codeSource.getLocation().getPath()));
         }
-        if (testAddSources){
-            getLog().info("Adding generated classes to test classpath");
-            project.addTestCompileSourceRoot( outputDirectory.getAbsolutePath() );
+        fingerprint.add("inputDirectories", inputDirectories)
+                .add("includeDirectories", includeDirectories)
+                .add("extractDependencyProtos", extractDependencyProtos)
+                .add("cleanOutputFolder", cleanOutputFolder)
+                .add("addSources", addSources)
+                .add("outputDirectory", outputDirectory.getAbsolutePath())
+                .add("outputTargets", describeTargets())
+                .add("extension", extension)
+                .add("includes", includes)
+                .add("excludes", excludes)
+                .add("ignoreVersions", ignoreVersions)
+                .add("generators", getGenerators())
+                .add("protocCommand", protocCommand)
+                .add("resolveProtoc", resolveProtoc)
+                .add("protocArtifactVersion", protocArtifactVersion)
+                .add("descriptorPipeline", descriptorPipeline)
+                .add("compilerBackend", compilerBackend)
+                .add("batch", batch)
+                .add("staleCheck", staleCheck)
+                .add("shareGeneration", shareGeneration)
+                .add("protobufArtifact", protobufGroupId+":"+protobufArtifactId)
+                .add("protobufVersionValidationStrategy", protobufVersionValidationStrategy)
+                .add("protobufVersion", findResolvedProtobufVersion())
+                .add("validateOnly", validateOnly)
+                .add("namingRules", namingRules)
+                .add("attachGeneratedSources", attachGeneratedSources)
+                .add("reuseGeneratedSources", reuseGeneratedSources)
+                .add("generatedSourcesClassifier", generatedSourcesClassifier)
+                .addFile(baselineDescriptorSet);
+        if (!resolveProtoc){
+            fingerprint.addFile(ProtocVersionCache.resolveExecutable(protocCommand));
         }
-        if (mainAddSources || testAddSources){
-            buildContext.refresh(outputDirectory);
+        if (protocPlugins!=null){
+            for (ProtocPlugin plugin: protocPlugins){
+                fingerprint.add("plugin", plugin.getId())
+                        .add("pluginOptions", plugin.getOptions())
+                        .addFile(resolvePluginExecutable(Generator.plugin(plugin)));
+            }
+        }
+        if (extractDependencyProtos){
+            for (Object o: project.getArtifacts()){
+                fingerprint.addFile(((Artifact)o).getFile());
+            }
         }
-    }
-    
-    private void processFile(File file, File outputDir) throws MojoExecutionException{
-        getLog().info("    Processing "+file.getName());
-        Runtime runtime = Runtime.getRuntime();
-        Collection<String> cmd = buildCommand(file, outputDir);
         try {
-            Process process = runtime.exec(cmd.toArray(new String[0]));
-            if (process.waitFor() != 0) {
-                printErrorAndThrow(process, " for " + file);
+            ProtoSourceScanner inputScanner = new ProtoSourceScanner(getIncludePatterns(), excludes);
+            for (File input: inputDirectories){
+                if (input!=null && input.isDirectory()){
+                    for (ProtoSource source: inputScanner.scan(input)){
+                        fingerprint.addSource(source);
+                    }
+                }
+            }
+            if (includeDirectories!=null){
+                ProtoSourceScanner includeScanner = new ProtoSourceScanner(new String[]{"**/*"+extension}, null);
+                for (File include: includeDirectories){
+                    if (include.isDirectory()){
+                        for (ProtoSource source: includeScanner.scan(include)){
+                            fingerprint.addSource(source);
+                        }
+                    }
+                }
             }
-        }catch (InterruptedException e){
-            throw new MojoExecutionException("Interrupted",e);
         } catch (IOException e) {
-            throw new MojoExecutionException("Unable to execute protoc for "+file, e);
+            throw new MojoExecutionException("Unable to scan proto files", e);
         }
+        return fingerprint.get();
+    }
+
+    /**
+     * Digest of the size and modification time of the files generated by the last run.
+     */
+    private String getOutputFingerprint(){
+        GenerationFingerprint fingerprint = new GenerationFingerprint();
+        BuildState state = BuildState.load(getStateFile());
+        if (state==null){
+            fingerprint.add("state", null);
+        }else{
+            for (BuildState.Unit unit: state.getUnits()){
+                for (String output: unit.getOutputs()){
+                    fingerprint.addFile(new File(output));
+                }
+            }
+        }
+        if (attachGeneratedSources){
+            fingerprint.addFile(getArchiveFile());
+        }
+        return fingerprint.get();
+    }
+
+    private File getFingerprintFile(){
+        return getWorkFile(".fingerprint");
+    }
+
+    private String[] getIncludePatterns(){
+        return includes!=null && includes.length>0 ? includes : new String[]{"**/*"+extension};
+    }
+
+    private void addSourceRoots(){
+        for (OutputTarget target: targets){
+            boolean mainAddSources = "main".endsWith(target.getAddSources());
+            boolean testAddSources = "test".endsWith(target.getAddSources());
+            if (mainAddSources){
+                getLog().info("Adding generated classes to classpath");
+                project.addCompileSourceRoot( target.getOutputDirectory().getAbsolutePath() );
+            }
+            if (testAddSources){
+                getLog().info("Adding generated classes to test classpath");
+                project.addTestCompileSourceRoot( target.getOutputDirectory().getAbsolutePath() );
+            }
+        }
+    }
+
+    private String describeTargets(){
+        StringBuilder description = new StringBuilder();
+        for (OutputTarget target: targets){
+            description.append(target.getGenerators()).append('>').append(target.getOutputDirectory().getAbsolutePath())
+                    .append(':').append(target.getAddSources()).append('\n');
+        }
+        return description.toString();
+    }
+
+    private void addDependencyIncludes() throws MojoExecutionException{
+        if (extractDependencyProtos && dependencyProtoDirectories==null){
+            long start = BuildMetrics.now();
+            List<File> includes = new ArrayList<File>();
+            if (includeDirectories!=null){
+                includes.addAll(Arrays.asList(includeDirectories));
+            }
+            dependencyProtoDirectories = extractDependencyProtos();
+            includes.addAll(dependencyProtoDirectories);
+            includeDirectories = includes.toArray(new File[includes.size()]);
+            metrics.recordPhase("dependency extraction", start);
+        }
+    }
+
+    /**
+     * @return proto files of every existing input directory
+     */
+    private Map<File, List<File>> scanInputDirectories() throws MojoExecutionException{
+        ProtoSourceScanner sourceScanner = new ProtoSourceScanner(getIncludePatterns(), excludes);
+        importScanner = new ProtoImportScanner();
+
+        long start = BuildMetrics.now();
+        Map<File, List<File>> filesByInput = new LinkedHashMap<File, List<File>>();
+        for (File input: inputDirectories){
+            if (input==null){
+                continue;
+            }
+            getLog().info("Directory "+input);
+            if (input.exists() && input.isDirectory()){
+                List<File> files = new ArrayList<File>();
+                try {
+                    for (ProtoSource source: sourceScanner.scan(input)){
+                        files.add(source.getFile());
+                        importScanner.addKnownFile(source.getFile());
+                    }
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Unable to scan "+input, e);
+                }
+                filesByInput.put(input, files);
+            }else{
+                if (input.exists())
+                    getLog().warn(input+" is not a directory");
+                else
+                    getLog().warn(input+" does not exist");
+            }
+        }
+
+        metrics.recordPhase("directory scan", start);
+        return filesByInput;
+    }
+
+    /**
+     * Parses all proto files into descriptor sets without generating anything,
+     * and checks the result.
+     */
+    private void performValidation() throws MojoExecutionException{
+        addDependencyIncludes();
+        Map<File, List<File>> filesByInput = scanInputDirectories();
+        List<File> roots = getAllRoots(filesByInput);
+        long start = BuildMetrics.now();
+        Map<String, FileDescriptorProto> parsed = parseDescriptors(filesByInput, getWorkFile("-validate"),
+                "--include_source_info");
+        metrics.recordPhase("protoc", start);
+        if (parsed.isEmpty()){
+            getLog().info("No proto files to validate");
+            return;
+        }
+
+        start = BuildMetrics.now();
+        List<ProtocDiagnostic> diagnostics = new ArrayList<ProtocDiagnostic>();
+        DescriptorValidator validator = new DescriptorValidator(!"error".equals(namingRules));
+        diagnostics.addAll(validator.checkDuplicates(parsed.values()));
+        if (!"none".equals(namingRules)){
+            for (FileDescriptorProto file: parsed.values()){
+                diagnostics.addAll(validator.checkNaming(file));
+            }
+        }
+        if (baselineDescriptorSet!=null){
+            try {
+                BreakingChangeDetector detector = new BreakingChangeDetector(parsed.values());
+                diagnostics.addAll(detector.compare(readDescriptorSet(baselineDescriptorSet).getFileList()));
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to read baseline descriptor set "+baselineDescriptorSet, e);
+            }
+        }
+        metrics.recordPhase("validation", start);
+
+        int errors = 0;
+        for (ProtocDiagnostic diagnostic: diagnostics){
+            String text = diagnostic.getFile()+":"+diagnostic.getLine()+":"+diagnostic.getColumn()+": "
+                    +diagnostic.getMessage();
+            File file = resolveDiagnosticFile(diagnostic.getFile(), roots);
+            if (!diagnostic.isWarning()){
+                errors++;
+            }
+            if (file!=null){
+                buildContext.addMessage(file, diagnostic.getLine(), diagnostic.getColumn(), diagnostic.getMessage(),
+                        diagnostic.isWarning() ? BuildContext.SEVERITY_WARNING : BuildContext.SEVERITY_ERROR, null);
+            }else if (diagnostic.isWarning()){
+                getLog().warn("    "+text);
+            }else{
+                getLog().error("    "+text);
+            }
+        }
+        File merged = getWorkFile("-descriptors.pb");
+        writeDescriptorSet(parsed.values(), merged);
+        getLog().info("Validated "+parsed.size()+" files, descriptor set written to "+merged);
+        if (errors>0){
+            throw new MojoExecutionException(errors+" problems found in proto files");
+        }
+    }
+
+    /**
+     * Looks for the generated files in jars attached to direct dependencies and in
+     * the generation cache, and unpacks the first archive that was generated from the
+     * same proto files with the same protoc version and generators.
+     * @return true if the files were unpacked and protoc does not have to run
+     */
+    private boolean restoreGeneratedSources() throws MojoExecutionException{
+        if (!reuseGeneratedSources && generationCache==null){
+            return false;
+        }
+        addDependencyIncludes();
+        Map<File, List<File>> filesByInput = scanInputDirectories();
+        archiveKey = getArchiveKey(filesByInput);
+        if (reuseGeneratedSources){
+            long start = BuildMetrics.now();
+            Set<?> dependencies = project.getDependencyArtifacts();
+            File archive = null;
+            if (dependencies!=null){
+                Map<String, File> files = new HashMap<String, File>();
+                for (Object o: project.getArtifacts()){
+                    Artifact artifact = (Artifact)o;
+                    files.put(artifact.getDependencyConflictId(), artifact.getFile());
+                }
+                DependencyProtoExtractor extractor = createDependencyProtoExtractor();
+                for (Object o: dependencies){
+                    Artifact dependency = (Artifact)o;
+                    archive = findArchive(dependency, files.get(dependency.getDependencyConflictId()),
+                            extractor, archiveKey);
+                    if (archive!=null){
+                        break;
+                    }
+                }
+            }
+            metrics.recordPhase("archive lookup", start);
+            if (archive!=null){
+                unpackArchive(archive, archive.toString(), filesByInput);
+                return true;
+            }
+            getLog().info("No generated sources to reuse");
+        }
+        if (generationCache!=null){
+            long start = BuildMetrics.now();
+            GenerationCache cache = createGenerationCache();
+            File archive = getWorkFile("-cache.jar");
+            boolean found = false;
+            try {
+                found = cache.fetch(archiveKey, archive) && archiveKey.equals(GeneratedSourcesArchive.readKey(archive));
+            } catch (IOException e) {
+                getLog().warn("Unable to read from the generation cache "+cache+": "+e.getMessage());
+            }
+            metrics.recordPhase("cache lookup", start);
+            try {
+                if (found){
+                    unpackArchive(archive, "the generation cache "+cache, filesByInput);
+                    return true;
+                }
+                getLog().info("Generated files are not in the generation cache "+cache);
+            } finally {
+                archive.delete();
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Stores the files generated by this execution in the generation cache, unless
+     * some proto files did not contribute to them, for example because only changed
+     * files were generated and there was no record of the others.
+     */
+    private void storeInCache() throws MojoExecutionException{
+        long start = BuildMetrics.now();
+        BuildState state = BuildState.load(getStateFile());
+        Set<String> covered = state!=null ? state.getSources() : Collections.<String>emptySet();
+        for (List<File> files: scanInputDirectories().values()){
+            for (File file: files){
+                if (!covered.contains(file.getAbsolutePath())){
+                    getLog().info("Not storing generated files in the generation cache, nothing is known to be "
+                            +"generated from "+file);
+                    return;
+                }
+            }
+        }
+        GenerationCache cache = createGenerationCache();
+        File archive = getWorkFile("-cache.jar");
+        try {
+            GeneratedSourcesArchive.write(archive, archiveKey, outputDirectory, getGeneratedFiles(), null);
+            cache.store(archiveKey, archive);
+            getLog().info("Stored generated files in the generation cache "+cache);
+        } catch (IOException e) {
+            getLog().warn("Unable to store generated files in the generation cache "+cache+": "+e.getMessage());
+        } finally {
+            archive.delete();
+        }
+        metrics.recordPhase("cache store", start);
+    }
+
+    private GenerationCache createGenerationCache() throws MojoExecutionException{
+        String location = generationCache.trim();
+        if (location.startsWith("file:")){
+            return new DirectoryGenerationCache(new File(URI.create(location)));
+        }
+        if (location.matches("[a-zA-Z][a-zA-Z0-9+.-]+:.*")){
+            throw new MojoExecutionException("Unsupported generationCache '"+location
+                    +"', only directories are supported");
+        }
+        File directory = new File(location);
+        return new DirectoryGenerationCache(directory.isAbsolute() ? directory
+                : new File(project.getBasedir(), location));
+    }
+
+    /**
+     * @return generator of every file generated by this execution, keyed by its path
+     * relative to the output directory
+     */
+    private Map<String, String> getGeneratedFiles(){
+        Map<String, String> generators = new TreeMap<String, String>();
+        BuildState state = BuildState.load(getStateFile());
+        if (state!=null){
+            for (BuildState.Unit unit: state.getUnits()){
+                for (int i = 0; i < unit.getOutputs().size(); i++){
+                    String relative = relativize(outputDirectory, unit.getOutputs().get(i));
+                    if (relative!=null && unit.getGenerator(i)!=null){
+                        generators.put(relative, unit.getGenerator(i));
+                    }
+                }
+            }
+        }
+        return generators;
+    }
+
+    /**
+     * Replaces the generated files with the contents of the archive and records them
+     * in the build state as generated by a single run from all proto files.
+     */
+    private void unpackArchive(File archive, String origin, Map<File, List<File>> filesByInput)
+            throws MojoExecutionException{
+        long start = BuildMetrics.now();
+        outputDirectory.mkdirs();
+        // The descriptor sets of earlier runs may describe older versions of the files,
+        // the one in the archive describes the files it was generated from
+        deleteDescriptorSets();
+        Map<String, String> generators;
+        try {
+            generators = GeneratedSourcesArchive.extract(archive, outputDirectory, changedOutputs);
+            GeneratedSourcesArchive.extractDescriptorSet(archive, new File(getDescriptorDir(), "archive.pb"));
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to unpack "+archive+" to "+outputDirectory, e);
+        }
+        List<String> sources = new ArrayList<String>();
+        for (List<File> files: filesByInput.values()){
+            for (File file: files){
+                sources.add(file.getAbsolutePath());
+            }
+        }
+        List<String> outputs = new ArrayList<String>();
+        List<String> outputGenerators = new ArrayList<String>();
+        for (Map.Entry<String, String> entry: generators.entrySet()){
+            outputs.add(new File(outputDirectory, entry.getKey()).getAbsolutePath());
+            outputGenerators.add(entry.getValue());
+        }
+        // Without fingerprints a later stale check generates everything again,
+        // the state only records which files the archive replaced
+        BuildState nextState = new BuildState(getExecutionId(), getConfigurationKey());
+        nextState.getUnits().add(new BuildState.Unit(sources, outputs, outputGenerators));
+        saveState(BuildState.load(getStateFile()), nextState, false);
+        metrics.recordPhase("archive unpack", start);
+        getLog().info("Reused "+generators.size()+" generated files from "+origin+", "
+                +changedOutputs.size()+" files changed");
+    }
+
+    /**
+     * Only dependencies that contain proto files can have generated the same files,
+     * the others are not looked up in the repositories at all.
+     * @param file resolved jar of the dependency
+     * @return jar with generated sources attached to the dependency if its key matches, otherwise null
+     */
+    private File findArchive(Artifact dependency, File file, DependencyProtoExtractor extractor, String key)
+            throws MojoExecutionException{
+        if (!"jar".equals(dependency.getType()) || dependency.getClassifier()!=null
+                || file==null || !file.isFile()){
+            return null;
+        }
+        try {
+            if (extractor.extract(file)==null){
+                return null;
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to extract proto files from "+dependency, e);
+        }
+        Artifact artifact = artifactFactory.createArtifactWithClassifier(dependency.getGroupId(),
+                dependency.getArtifactId(), dependency.getVersion(), "jar", generatedSourcesClassifier);
+        try {
+            artifactResolver.resolve(artifact, remoteRepositories, localRepository);
+        } catch (ArtifactResolutionException e) {
+            getLog().debug("Unable to resolve "+artifact+": "+e.getMessage());
+            return null;
+        } catch (ArtifactNotFoundException e) {
+            getLog().debug(artifact+" does not exist");
+            return null;
+        }
+        try {
+            String archiveKey = GeneratedSourcesArchive.readKey(artifact.getFile());
+            if (key.equals(archiveKey)){
+                return artifact.getFile();
+            }
+            getLog().info(artifact+" was generated from different proto files or with a different configuration");
+        } catch (IOException e) {
+            getLog().warn("Unable to read "+artifact.getFile()+": "+e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Packages the generated files and a descriptor set of the proto files
+     * into the jar that is attached to the project. The descriptors come from the
+     * descriptor sets protoc wrote while generating, protoc only parses the files
+     * again when some are missing, like after the files were restored from an archive.
+     */
+    private void writeGeneratedSourcesArchive() throws MojoExecutionException{
+        long start = BuildMetrics.now();
+        Map<File, List<File>> filesByInput = scanInputDirectories();
+        File descriptorDir = getWorkFile("-archive");
+        Map<String, FileDescriptorProto> parsed = collectDescriptors(filesByInput);
+        if (parsed==null){
+            parsed = parseDescriptors(filesByInput, descriptorDir, "--include_imports");
+        }
+        File descriptorSet = new File(descriptorDir, "descriptors.pb");
+        writeDescriptorSet(parsed.values(), descriptorSet);
+        Map<String, String> generators = getGeneratedFiles();
+        File archive = getArchiveFile();
+        try {
+            GeneratedSourcesArchive.write(archive, getArchiveKey(filesByInput), outputDirectory,
+                    generators, descriptorSet);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write "+archive, e);
+        }
+        metrics.recordPhase("archive", start);
+        getLog().info("Packaged "+generators.size()+" generated files into "+archive);
+    }
+
+    /**
+     * @return descriptors of the proto files and everything they import, imports
+     * first, or null if some of them are not in the descriptor sets of earlier runs
+     */
+    private Map<String, FileDescriptorProto> collectDescriptors(Map<File, List<File>> filesByInput){
+        File[] sets = getDescriptorDir().listFiles();
+        if (sets==null){
+            return null;
+        }
+        // Descriptor sets of later runs have the current version of the files that changed since
+        Arrays.sort(sets, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(a.lastModified(), b.lastModified());
+            }
+        });
+        Map<String, FileDescriptorProto> available = new HashMap<String, FileDescriptorProto>();
+        for (File set: sets){
+            try {
+                for (FileDescriptorProto file: readDescriptorSet(set).getFileList()){
+                    available.put(file.getName(), file);
+                }
+            } catch (IOException e) {
+                getLog().debug("Unable to read descriptor set "+set+": "+e.getMessage());
+                return null;
+            }
+        }
+        Map<String, FileDescriptorProto> collected = new LinkedHashMap<String, FileDescriptorProto>();
+        for (Map.Entry<File, List<File>> entry: filesByInput.entrySet()){
+            URI input = entry.getKey().getAbsoluteFile().toURI();
+            for (File file: entry.getValue()){
+                String name = input.relativize(file.getAbsoluteFile().toURI()).getPath();
+                if (!collectDescriptor(name, available, collected)){
+                    return null;
+                }
+            }
+        }
+        return collected;
+    }
+
+    private static boolean collectDescriptor(String name, Map<String, FileDescriptorProto> available,
+            Map<String, FileDescriptorProto> collected){
+        if (collected.containsKey(name)){
+            return true;
+        }
+        FileDescriptorProto file = available.get(name);
+        if (file==null){
+            return false;
+        }
+        for (String dependency: file.getDependencyList()){
+            if (!collectDescriptor(dependency, available, collected)){
+                return false;
+            }
+        }
+        collected.put(name, file);
+        return true;
+    }
+
+    /**
+     * @return directory with a descriptor set per protoc run, written by the descriptor
+     * pipeline and, when the generated sources are attached, by every other run
+     */
+    private File getDescriptorDir(){
+        return getWorkFile("-descriptors");
+    }
+
+    private void deleteDescriptorSets() throws MojoExecutionException{
+        try {
+            FileUtils.deleteDirectory(getDescriptorDir());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to delete "+getDescriptorDir(), e);
+        }
+    }
+
+    /**
+     * Makes a protoc run that generates files also write the descriptor set the
+     * attached archive needs. The descriptor pipeline writes one anyway.
+     */
+    private void addDescriptorSetOutput(List<String> cmd, ProtocInvocation invocation){
+        if (attachGeneratedSources && !descriptorPipeline){
+            File descriptor = new File(getDescriptorDir(), invocation.getId()+".pb");
+            descriptor.getParentFile().mkdirs();
+            cmd.add(0, "--descriptor_set_out=" + descriptor);
+            cmd.add(0, "--include_imports");
+        }
+    }
+
+    private File getArchiveFile(){
+        return getWorkFile("-"+generatedSourcesClassifier+".jar");
+    }
+
+    /**
+     * Identifies generated files independently of the machine: the protoc version,
+     * the backend, the generators with the contents of plugin executables, and the
+     * path of every proto file relative to its input directory with the contents
+     * of the file and its imports. No absolute path is part of the key.
+     */
+    private String getArchiveKey(Map<File, List<File>> filesByInput) throws MojoExecutionException{
+        StringBuilder key = new StringBuilder(protocVersion+"\n"+compilerBackend+"\n"+descriptorPipeline);
+        Map<String, String> fingerprints = new TreeMap<String, String>();
+        try {
+            for (Generator generator: getGenerators()){
+                key.append('\n').append(generator.getName()).append(':').append(generator.getOptions());
+                if (generator.isPlugin()){
+                    File executable = resolvePluginExecutable(generator);
+                    if (executable==null){
+                        throw new MojoExecutionException("Unable to find protoc plugin "+generator);
+                    }
+                    key.append(':').append(Digests.digest(executable));
+                }
+            }
+            for (Map.Entry<File, List<File>> entry: filesByInput.entrySet()){
+                URI input = entry.getKey().toURI();
+                List<File> roots = getImportRoots(entry.getKey());
+                for (File file: entry.getValue()){
+                    fingerprints.put(input.relativize(file.toURI()).getPath(),
+                            importScanner.getFingerprint(file, roots));
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read proto files or protoc plugins", e);
+        }
+        for (Map.Entry<String, String> entry: fingerprints.entrySet()){
+            key.append('\n').append(entry.getKey()).append('=').append(entry.getValue());
+        }
+        return Digests.digest(key.toString());
+    }
+
+    /**
+     * @return include directories followed by the input directories
+     */
+    private List<File> getAllRoots(Map<File, List<File>> filesByInput){
+        List<File> roots = new ArrayList<File>();
+        if (includeDirectories!=null){
+            roots.addAll(Arrays.asList(includeDirectories));
+        }
+        roots.addAll(filesByInput.keySet());
+        return roots;
+    }
+
+    /**
+     * Parses all proto files with as few protoc runs as the command line allows.
+     * Every run continues after a failed one, so all errors are reported at once.
+     * @param descriptorDir directory for the descriptor sets written by protoc
+     * @param options additional protoc options
+     * @return parsed files keyed by their name
+     */
+    private Map<String, FileDescriptorProto> parseDescriptors(Map<File, List<File>> filesByInput,
+            File descriptorDir, String... options) throws MojoExecutionException{
+        List<File> roots = getAllRoots(filesByInput);
+        List<String> baseArgs = new LinkedList<String>();
+        populateIncludes(baseArgs);
+        List<File> files = new ArrayList<File>();
+        for (Map.Entry<File, List<File>> entry: filesByInput.entrySet()){
+            baseArgs.add("-I" + entry.getKey().getAbsolutePath());
+            files.addAll(entry.getValue());
+        }
+        baseArgs.addAll(Arrays.asList(options));
+        baseArgs.add("--descriptor_set_out=" + new File(descriptorDir, "0000.pb"));
+
+        CommandLineChunker chunker = new CommandLineChunker(CommandLineChunker.DEFAULT_MAX_LENGTH);
+        List<List<File>> chunks = chunker.chunk(baseArgs, files);
+        Map<String, FileDescriptorProto> parsed = new LinkedHashMap<String, FileDescriptorProto>();
+        boolean failed = false;
+        descriptorDir.mkdirs();
+        for (int i = 0; i < chunks.size(); i++){
+            File descriptor = new File(descriptorDir, String.format("%04d.pb", i));
+            List<String> args = new LinkedList<String>(baseArgs);
+            args.set(args.size()-1, "--descriptor_set_out=" + descriptor);
+            for (File file: chunks.get(i)){
+                args.add(file.toString());
+            }
+            clearMessages(chunks.get(i));
+            ProtocResult result = runProtoc(args, chunks.get(i).size()+" files");
+            getLog().info("    Parsing "+chunks.get(i).size()+" files");
+            printDiagnostics(result, roots);
+            if (!result.isSuccess()){
+                getLog().error("'protoc' failed"+describeExit(result));
+                failed = true;
+                continue;
+            }
+            try {
+                for (FileDescriptorProto file: readDescriptorSet(descriptor).getFileList()){
+                    parsed.put(file.getName(), file);
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to read descriptor set "+descriptor, e);
+            }
+        }
+        if (failed){
+            throw new MojoExecutionException("Proto files are not valid");
+        }
+        return parsed;
+    }
+
+    private static void writeDescriptorSet(Collection<FileDescriptorProto> files, File target)
+            throws MojoExecutionException{
+        try {
+            target.getParentFile().mkdirs();
+            OutputStream out = new FileOutputStream(target);
+            try {
+                FileDescriptorSet.newBuilder().addAllFile(files).build().writeTo(out);
+            } finally {
+                out.close();
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to write descriptor set "+target, e);
+        }
+    }
+
+    private static FileDescriptorSet readDescriptorSet(File file) throws IOException{
+        InputStream in = new FileInputStream(file);
+        try {
+            return FileDescriptorSet.parseFrom(in);
+        } finally {
+            in.close();
+        }
+    }
+
+    private void performProtoCompilation() throws MojoExecutionException{
+        addDependencyIncludes();
+        if (includeDirectories!=null && includeDirectories.length>0){
+            getLog().info("Include directories:");
+            for (File include: includeDirectories){
+                getLog().info("    "+include);
+            }
+        }
+        getLog().info("Input directories:");
+        for (File input: inputDirectories){
+            getLog().info("    "+input);
+        }
+
+        for (OutputTarget target: targets){
+            getLog().info("Output directory: "+target.getOutputDirectory()
+                    +(targets.size()>1 ? " for "+target.getGenerators() : ""));
+            File f = target.getOutputDirectory();
+            if ( !f.exists() )
+            {
+                getLog().info(f+" does not exist. Creating...");
+                f.mkdirs();
+            }
+        }
+        BuildState previousState = BuildState.load(getStateFile());
+        BuildState nextState = new BuildState(getExecutionId(), getConfigurationKey());
+        // Instead of cleaning the output folder up front everything is regenerated
+        // and files that were not generated again are deleted afterwards. Without a
+        // state nothing tells which files are stale, so the folder is cleaned as well
+        boolean fullRegeneration = knownChanges==null
+                && (previousState==null || cleanOutputFolder && !staleCheck);
+        if (fullRegeneration){
+            deleteDescriptorSets();
+        }
+
+        Map<File, List<File>> filesByInput = scanInputDirectories();
+
+        long start = BuildMetrics.now();
+        Map<File, List<File>> changedByInput;
+        boolean fingerprinted = staleCheck && knownChanges==null;
+        if (fingerprinted){
+            changedByInput = selectStaleFiles(filesByInput, previousState, nextState);
+        }else if (fullRegeneration){
+            changedByInput = filesByInput;
+        }else{
+            changedByInput = selectChangedFiles(filesByInput);
+            if (previousState!=null){
+                changedByInput = addBatchSiblings(previousState, filesByInput, changedByInput);
+            }
+        }
+        metrics.recordPhase("change detection", start);
+        for (File input: filesByInput.keySet()){
+            metrics.recordFiles(filesByInput.get(input).size(), changedByInput.get(input).size());
+        }
+
+        costs = InvocationCosts.load(getCostsFile());
+        int threadCount = parseThreads(threads);
+        protocPermits = new Semaphore(threadCount);
+        // With several threads cheap files are packed into batches of about half of what
+        // every thread would get with an even split, which leaves room to balance the rest
+        long batchCost = 0;
+        if (batch && threadCount>1){
+            for (List<File> files: changedByInput.values()){
+                batchCost += costs.estimate(files);
+            }
+            batchCost /= threadCount*2;
+        }
+        List<ProtocInvocation> invocations = new ArrayList<ProtocInvocation>();
+        for (Map.Entry<File, List<File>> entry: changedByInput.entrySet()){
+            File input = entry.getKey();
+            if (batch){
+                invocations.addAll(createBatches(input, entry.getValue(), outputDirectory, batchCost));
+            }else{
+                for (File file: entry.getValue()){
+                    invocations.add(new ProtocInvocation(input, Collections.singletonList(file)));
+                }
+            }
+        }
+        if (threadCount>1){
+            sortByCost(invocations);
+        }
+        if (previousState!=null && !invocations.isEmpty()){
+            // A failed or interrupted run must not leave a state that claims everything
+            // is up to date, but the next run still has to know the generated files
+            BuildState pending = new BuildState(getExecutionId(), "");
+            pending.getUnits().addAll(previousState.getUnits());
+            try {
+                pending.save(getStateFile());
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to save build state to "+getStateFile(), e);
+            }
+        }
+        start = BuildMetrics.now();
+        processInvocations(invocations, outputDirectory);
+        metrics.recordPhase("protoc", start);
+        saveCosts(filesByInput);
+        start = BuildMetrics.now();
+        Set<String> generated = new HashSet<String>();
+        for (ProtocInvocation invocation: invocations){
+            List<String> sources = new ArrayList<String>();
+            for (File file: invocation.getFiles()){
+                sources.add(file.getAbsolutePath());
+            }
+            generated.addAll(sources);
+            List<String> outputs = new ArrayList<String>();
+            List<String> outputGenerators = new ArrayList<String>();
+            for (Generator generator: getGenerators()){
+                File directory = getTargetDirectory(generator.getName());
+                for (String output: invocation.getOutputs(generator.getName())){
+                    outputs.add(new File(directory, output).getAbsolutePath());
+                    outputGenerators.add(generator.getName());
+                }
+            }
+            nextState.getUnits().add(new BuildState.Unit(sources, outputs, outputGenerators));
+        }
+        if (!fingerprinted && previousState!=null){
+            carryOverUnits(previousState, nextState, filesByInput, generated);
+        }
+        int deleted = saveState(previousState, nextState, fullRegeneration);
+        if (deleted>0){
+            getLog().info("Deleted "+deleted+" files that were not generated again");
+        }
+        metrics.recordPhase("output clean", start);
+        getLog().info(changedOutputs.size()+" generated files changed");
+    }
+
+    /**
+     * Deletes files of the previous state that were not generated again and saves
+     * the next state, then removes the states of executions that no longer exist.
+     * Files of other executions writing to the same folder are never deleted.
+     * @param deleteOrphans deletes everything in the output directories that the
+     * next state does not know about
+     * @return number of deleted files
+     */
+    private int saveState(BuildState previousState, BuildState nextState, boolean deleteOrphans)
+            throws MojoExecutionException{
+        File stateFile = getStateFile();
+        Map<File, BuildState> others = BuildState.loadOthers(stateFile.getParentFile(), stateFile);
+        Set<String> liveExecutions = getLiveExecutionIds();
+        Map<File, BuildState> orphans = new TreeMap<File, BuildState>();
+        Set<String> keep = nextState.getOutputs();
+        for (Map.Entry<File, BuildState> entry: others.entrySet()){
+            String executionId = entry.getValue().getExecutionId();
+            // An execution has a single state, another one with the same id is left
+            // from a different output directory
+            if (executionId==null || executionId.equals(getExecutionId())
+                    || (liveExecutions!=null && !liveExecutions.contains(executionId))){
+                orphans.put(entry.getKey(), entry.getValue());
+            }else{
+                keep.addAll(entry.getValue().getOutputs());
+            }
+        }
+        List<File> deleted = new ArrayList<File>();
+        if (deleteOrphans){
+            for (OutputTarget target: targets){
+                OutputStaging.deleteOrphans(target.getOutputDirectory(),
+                        relativize(target.getOutputDirectory(), keep), deleted);
+            }
+        }
+        Set<String> stale = new HashSet<String>();
+        if (previousState!=null){
+            stale.addAll(previousState.getOutputs());
+        }
+        for (BuildState orphan: orphans.values()){
+            stale.addAll(orphan.getOutputs());
+        }
+        stale.removeAll(keep);
+        deleteOutputs(stale, deleted);
+        try {
+            nextState.save(stateFile);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to save build state to "+stateFile, e);
+        }
+        for (File orphan: orphans.keySet()){
+            getLog().info("Removing files of execution "+orphans.get(orphan).getExecutionId()
+                    +" that no longer exists");
+            deleteWorkFiles(orphan);
+        }
+        changedOutputs.addAll(deleted);
+        return deleted.size();
+    }
+
+    /**
+     * @return ids of the executions of this plugin in the project, or null if they are unknown
+     */
+    private Set<String> getLiveExecutionIds(){
+        if (mojoExecution==null){
+            return null;
+        }
+        PluginDescriptor descriptor = mojoExecution.getMojoDescriptor()!=null
+                ? mojoExecution.getMojoDescriptor().getPluginDescriptor() : null;
+        if (descriptor==null){
+            return null;
+        }
+        Set<String> ids = new HashSet<String>();
+        ids.add(getExecutionId());
+        List<?> plugins = project.getBuildPlugins();
+        if (plugins!=null){
+            for (Object o: plugins){
+                Plugin plugin = (Plugin)o;
+                if (!descriptor.getGroupId().equals(plugin.getGroupId())
+                        || !descriptor.getArtifactId().equals(plugin.getArtifactId())){
+                    continue;
+                }
+                for (Object e: plugin.getExecutions()){
+                    ids.add(((PluginExecution)e).getId());
+                }
+            }
+        }
+        return ids;
+    }
+
+    /**
+     * @return path relative to the directory with '/' separators, or null if it is not inside
+     */
+    private static String relativize(File directory, String path){
+        String prefix = directory.getAbsolutePath()+File.separator;
+        return path.startsWith(prefix) ? path.substring(prefix.length()).replace(File.separatorChar, '/') : null;
+    }
+
+    private static Set<String> relativize(File directory, Set<String> paths){
+        Set<String> relative = new HashSet<String>();
+        for (String path: paths){
+            String name = relativize(directory, path);
+            if (name!=null){
+                relative.add(name);
+            }
+        }
+        return relative;
+    }
+
+    /**
+     * Deletes the generated files and the directories of their output directory that become empty.
+     */
+    private void deleteOutputs(Collection<String> outputs, List<File> deleted){
+        for (String output: outputs){
+            File root = new File(output).getParentFile();
+            for (OutputTarget target: targets){
+                if (relativize(target.getOutputDirectory(), output)!=null){
+                    root = target.getOutputDirectory();
+                }
+            }
+            OutputStaging.delete(root, Collections.singleton(relativize(root, output)), deleted);
+        }
+    }
+
+    /**
+     * Deletes the state file and every other work file of the same execution.
+     */
+    private void deleteWorkFiles(File stateFile) throws MojoExecutionException{
+        String name = stateFile.getName();
+        String prefix = name.substring(0, name.length()-BuildState.EXTENSION.length());
+        File[] files = stateFile.getParentFile().listFiles();
+        if (files==null){
+            return;
+        }
+        for (File file: files){
+            if (file.getName().startsWith(prefix)){
+                try {
+                    FileUtils.forceDelete(file);
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Unable to delete "+file, e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Asks the build context, or uses the changes passed to regenerate,
+     * to find out which proto files changed, including imported
+     * files from include directories, and selects every input file that
+     * imports a changed file directly or transitively.
+     */
+    private Map<File, List<File>> selectChangedFiles(Map<File, List<File>> filesByInput) throws MojoExecutionException{
+        Set<File> affected;
+        try {
+            ImportGraph graph = ImportGraph.build(importScanner, filesByInput, includeDirectories);
+            Set<File> changed = new HashSet<File>();
+            for (File file: graph.getFiles()){
+                // The build context knows files by the configured path, not the canonical one
+                if (knownChanges!=null ? knownChanges.contains(file) : buildContext.hasDelta(graph.getPath(file).getPath())){
+                    changed.add(file);
+                }
+            }
+            affected = graph.getAffectedFiles(changed);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read proto files", e);
+        }
+        Map<File, List<File>> changedByInput = new LinkedHashMap<File, List<File>>();
+        for (Map.Entry<File, List<File>> entry: filesByInput.entrySet()){
+            List<File> changedFiles = new ArrayList<File>();
+            for (File file: entry.getValue()){
+                if (affected.contains(canonical(file))){
+                    changedFiles.add(file);
+                }else{
+                    getLog().info("Not changed "+file);
+                }
+            }
+            changedByInput.put(entry.getKey(), changedFiles);
+        }
+        return changedByInput;
+    }
+
+    /**
+     * Outputs of a batch cannot be attributed to a single proto file, so when a file
+     * of a previous batch changed or was removed, the rest of the batch is generated
+     * again as well.
+     */
+    private Map<File, List<File>> addBatchSiblings(BuildState previous,
+            Map<File, List<File>> filesByInput, Map<File, List<File>> changedByInput){
+        Set<String> present = new HashSet<String>();
+        for (List<File> files: filesByInput.values()){
+            for (File file: files){
+                present.add(file.getAbsolutePath());
+            }
+        }
+        Set<String> changed = new HashSet<String>();
+        for (List<File> files: changedByInput.values()){
+            for (File file: files){
+                changed.add(file.getAbsolutePath());
+            }
+        }
+        Set<String> affected = new HashSet<String>(changed);
+        for (BuildState.Unit unit: previous.getUnits()){
+            List<String> sources = unit.getSources();
+            if (sources.size()<2){
+                continue;
+            }
+            boolean stale = false;
+            for (String source: sources){
+                stale |= changed.contains(source) || !present.contains(source);
+            }
+            if (stale){
+                affected.addAll(sources);
+            }
+        }
+        if (affected.size()==changed.size()){
+            return changedByInput;
+        }
+        Map<File, List<File>> result = new LinkedHashMap<File, List<File>>();
+        for (Map.Entry<File, List<File>> entry: filesByInput.entrySet()){
+            List<File> files = new ArrayList<File>();
+            for (File file: entry.getValue()){
+                if (affected.contains(file.getAbsolutePath())){
+                    files.add(file);
+                }
+            }
+            result.put(entry.getKey(), files);
+        }
+        return result;
+    }
+
+    /**
+     * Keeps the units of the previous state whose proto files still exist and were
+     * not generated again, together with the fingerprints of their proto files.
+     */
+    private void carryOverUnits(BuildState previous, BuildState next,
+            Map<File, List<File>> filesByInput, Set<String> generated){
+        Set<String> present = new HashSet<String>();
+        for (List<File> files: filesByInput.values()){
+            for (File file: files){
+                present.add(file.getAbsolutePath());
+            }
+        }
+        Set<String> outputs = next.getOutputs();
+        for (BuildState.Unit unit: previous.getUnits()){
+            boolean valid = true;
+            for (String source: unit.getSources()){
+                valid &= present.contains(source) && !generated.contains(source);
+            }
+            for (String output: unit.getOutputs()){
+                valid &= !outputs.contains(output) && new File(output).isFile();
+            }
+            if (valid){
+                next.getUnits().add(unit);
+                for (String source: unit.getSources()){
+                    String fingerprint = previous.getFingerprints().get(source);
+                    if (fingerprint!=null){
+                        next.getFingerprints().put(source, fingerprint);
+                    }
+                }
+            }
+        }
+    }
+
+    private static File canonical(File file){
+        try {
+            return file.getCanonicalFile();
+        } catch (IOException e) {
+            return file.getAbsoluteFile();
+        }
+    }
+
+    /**
+     * Compares fingerprints of the proto files with the previous build state.
+     * Outputs of every protoc run that involved a changed or removed file are deleted
+     * and all remaining files of that run are generated again.
+     */
+    private Map<File, List<File>> selectStaleFiles(Map<File, List<File>> filesByInput,
+            BuildState previousState, BuildState nextState) throws MojoExecutionException{
+        boolean sameConfiguration = previousState!=null &&
+                nextState.getConfiguration().equals(previousState.getConfiguration());
+        ProtoImportScanner scanner = importScanner;
+        Set<String> present = new HashSet<String>();
+        Set<String> changed = new HashSet<String>();
+        try {
+            for (Map.Entry<File, List<File>> entry: filesByInput.entrySet()){
+                List<File> roots = getImportRoots(entry.getKey());
+                for (File file: entry.getValue()){
+                    String path = file.getAbsolutePath();
+                    String fingerprint = scanner.getFingerprint(file, roots);
+                    present.add(path);
+                    nextState.getFingerprints().put(path, fingerprint);
+                    if (!sameConfiguration || !fingerprint.equals(previousState.getFingerprints().get(path))){
+                        changed.add(path);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read proto files", e);
+        }
+
+        Set<String> upToDate = new HashSet<String>();
+        if (previousState!=null){
+            for (BuildState.Unit unit: previousState.getUnits()){
+                boolean valid = true;
+                for (String source: unit.getSources()){
+                    valid &= present.contains(source) && !changed.contains(source);
+                }
+                for (String output: unit.getOutputs()){
+                    valid &= new File(output).isFile();
+                }
+                if (valid){
+                    nextState.getUnits().add(unit);
+                    upToDate.addAll(unit.getSources());
+                }else{
+                    for (String output: unit.getOutputs()){
+                        File generated = new File(output);
+                        if (generated.delete()){
+                            changedOutputs.add(generated);
+                        }
+                    }
+                }
+            }
+        }
+
+        Map<File, List<File>> staleByInput = new LinkedHashMap<File, List<File>>();
+        for (Map.Entry<File, List<File>> entry: filesByInput.entrySet()){
+            List<File> staleFiles = new ArrayList<File>();
+            for (File file: entry.getValue()){
+                if (!upToDate.contains(file.getAbsolutePath())){
+                    staleFiles.add(file);
+                }
+            }
+            staleByInput.put(entry.getKey(), staleFiles);
+        }
+        getLog().info((present.size()-upToDate.size())+" of "+present.size()+" files need to be generated");
+        return staleByInput;
+    }
+
+    private List<File> getImportRoots(File input){
+        List<File> roots = new ArrayList<File>();
+        if (includeDirectories!=null){
+            roots.addAll(Arrays.asList(includeDirectories));
+        }
+        roots.add(input);
+        return roots;
+    }
+
+    private File getStateFile(){
+        return getWorkFile(BuildState.EXTENSION);
+    }
+
+    private String getExecutionId(){
+        return mojoExecution!=null && mojoExecution.getExecutionId()!=null
+                ? mojoExecution.getExecutionId() : "default";
+    }
+
+    /**
+     * @return a file in the plugin work directory that belongs to the current execution,
+     * which is told apart from other executions by its id and output directory
+     */
+    private File getWorkFile(String suffix){
+        String key = Digests.digest(getExecutionId()+"\n"+outputDirectory.getAbsolutePath()).substring(0, 8);
+        return new File(project.getBuild().getDirectory(),
+                "protobuf-maven-plugin"+File.separator+outputDirectory.getName()+"-"+key+suffix);
+    }
+
+    private File getStagingRoot(){
+        return new File(project.getBuild().getDirectory(), "protobuf-maven-plugin"+File.separator+"staging");
+    }
+
+    /**
+     * Everything besides the proto files themselves that affects generated code.
+     */
+    private String getConfigurationKey() throws MojoExecutionException{
+        StringBuilder key = new StringBuilder(protocVersion+"\n"+backend.getName());
+        for (String arg: buildArguments(project.getBasedir(), Collections.<File>emptyList(), outputDirectory)){
+            key.append('\n').append(arg);
+        }
+        return key.append('\n').append(describeTargets()).toString();
+    }
+
+    /**
+     * @param batchCost estimated cost a batch should reach before a new one is started,
+     * or 0 to put as many files into a batch as the command line allows
+     */
+    private List<ProtocInvocation> createBatches(File input, List<File> files, File outputDir, long batchCost)
+            throws MojoExecutionException{
+        List<ProtocInvocation> batches = new ArrayList<ProtocInvocation>();
+        if (files.isEmpty()){
+            return batches;
+        }
+        CommandLineChunker chunker = new CommandLineChunker(CommandLineChunker.DEFAULT_MAX_LENGTH);
+        List<String> baseCmd = buildArguments(input, Collections.<File>emptyList(), outputDir);
+        addDescriptorSetOutput(baseCmd, new ProtocInvocation(input, files));
+        baseCmd.add(0, backend.getName());
+        for (List<File> group: groupByCost(files, batchCost)){
+            for (List<File> chunk: chunker.chunk(baseCmd, group)){
+                batches.add(new ProtocInvocation(input, chunk));
+            }
+        }
+        return batches;
+    }
+
+    /**
+     * Files that cost at least batchCost get a group of their own, the rest is
+     * packed into groups of about batchCost, most expensive files first.
+     */
+    private List<List<File>> groupByCost(List<File> files, long batchCost){
+        if (batchCost<=0){
+            return Collections.singletonList(files);
+        }
+        List<File> sorted = new ArrayList<File>(files);
+        Collections.sort(sorted, new Comparator<File>() {
+            @Override
+            public int compare(File a, File b) {
+                return Long.compare(costs.estimate(b), costs.estimate(a));
+            }
+        });
+        List<List<File>> groups = new ArrayList<List<File>>();
+        List<File> current = new ArrayList<File>();
+        long currentCost = 0;
+        for (File file: sorted){
+            long cost = costs.estimate(file);
+            if (cost>=batchCost){
+                groups.add(Collections.singletonList(file));
+                continue;
+            }
+            current.add(file);
+            currentCost += cost;
+            if (currentCost>=batchCost){
+                groups.add(current);
+                current = new ArrayList<File>();
+                currentCost = 0;
+            }
+        }
+        if (!current.isEmpty()){
+            groups.add(current);
+        }
+        return groups;
+    }
+
+    /**
+     * Longest processing time first: the pool takes tasks in order, so expensive
+     * runs start early and cheap ones fill the gaps at the end.
+     */
+    private void sortByCost(List<ProtocInvocation> invocations){
+        final Map<ProtocInvocation, Long> estimates = new HashMap<ProtocInvocation, Long>();
+        for (ProtocInvocation invocation: invocations){
+            estimates.put(invocation, costs.estimate(invocation.getFiles()));
+        }
+        Collections.sort(invocations, new Comparator<ProtocInvocation>() {
+            @Override
+            public int compare(ProtocInvocation a, ProtocInvocation b) {
+                return Long.compare(estimates.get(b), estimates.get(a));
+            }
+        });
+    }
+
+    private void saveCosts(Map<File, List<File>> filesByInput) throws MojoExecutionException{
+        List<String> present = new ArrayList<String>();
+        for (List<File> files: filesByInput.values()){
+            for (File file: files){
+                present.add(file.getAbsolutePath());
+            }
+        }
+        costs.retain(present);
+        try {
+            costs.save(getCostsFile());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to save protoc durations to "+getCostsFile(), e);
+        }
+    }
+
+    private File getCostsFile(){
+        return getWorkFile(".costs");
+    }
+
+    private void processInvocations(List<ProtocInvocation> invocations, final File outputDir) throws MojoExecutionException{
+        int threadCount = Math.min(parseThreads(threads), invocations.size());
+        if (threadCount>1){
+            getLog().info("Running protoc in "+threadCount+" threads");
+        }
+        if (shareGeneration){
+            pruneSharedRoot();
+        }
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final ProtocInvocation invocation: invocations){
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws MojoExecutionException {
+                    processInvocation(invocation, outputDir);
+                    return null;
+                }
+            });
+        }
+        runConcurrently(tasks, threadCount);
+    }
+
+    /**
+     * Runs the tasks on a pool of the given size and fails on the first failed task.
+     */
+    private void runConcurrently(List<Callable<Void>> tasks, int threadCount) throws MojoExecutionException{
+        if (threadCount<=1){
+            for (Callable<Void> task: tasks){
+                try {
+                    task.call();
+                } catch (MojoExecutionException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new MojoExecutionException("Unable to execute protoc", e);
+                }
+            }
+            return;
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threadCount);
+        try {
+            CompletionService<Void> completionService = new ExecutorCompletionService<Void>(executor);
+            for (Callable<Void> task: tasks){
+                completionService.submit(task);
+            }
+            for (int i = 0; i < tasks.size(); i++){
+                try {
+                    completionService.take().get();
+                } catch (ExecutionException e) {
+                    if (e.getCause() instanceof MojoExecutionException){
+                        throw (MojoExecutionException)e.getCause();
+                    }
+                    throw new MojoExecutionException("Unable to execute protoc", e.getCause());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted", e);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Runs protoc into a staging directory and moves only files with new content
+     * to the output directory, so unchanged sources keep their timestamps.
+     */
+    private void processInvocation(ProtocInvocation invocation, File outputDir) throws MojoExecutionException{
+        if (shareGeneration){
+            processSharedInvocation(invocation, outputDir);
+            return;
+        }
+        OutputStaging staging = new OutputStaging(new File(getStagingRoot(), invocation.getId()));
+        try {
+            prepareStaging(staging);
+            long start = BuildMetrics.now();
+            runInvocation(invocation, staging.getDirectory());
+            costs.record(invocation.getFiles(), BuildMetrics.now()-start);
+            transferOutputs(invocation, staging.getDirectory(), true);
+            FileUtils.deleteDirectory(staging.getDirectory());
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to move generated files to "+outputDir, e);
+        }
+    }
+
+    /**
+     * Generates into a directory shared by all modules of the build, or reuses it
+     * when another module already generated the same files, and copies the result.
+     */
+    private void processSharedInvocation(final ProtocInvocation invocation, File outputDir) throws MojoExecutionException{
+        final String key = getGenerationKey(invocation);
+        final boolean[] generatedHere = new boolean[1];
+        try {
+            File shared = getCoordinator().generate(key, new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    OutputStaging staging = new OutputStaging(new File(getSharedRoot(), key));
+                    prepareStaging(staging);
+                    long start = BuildMetrics.now();
+                    runInvocation(invocation, staging.getDirectory());
+                    costs.record(invocation.getFiles(), BuildMetrics.now()-start);
+                    generatedHere[0] = true;
+                    return staging.getDirectory();
+                }
+            });
+            if (!generatedHere[0]){
+                synchronized (logLock){
+                    getLog().info("    Reusing files generated by another module for "+invocation);
+                }
+            }
+            transferOutputs(invocation, shared, false);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof MojoExecutionException){
+                throw (MojoExecutionException)e.getCause();
+            }
+            throw new MojoExecutionException("Unable to generate files for "+invocation, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted", e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to copy generated files to "+outputDir, e);
+        }
+    }
+
+    /**
+     * Every generator writes into its own subdirectory of the staging directory,
+     * so that it is known which generator produced a file.
+     */
+    private static File getGeneratorDirectory(File stagingDir, Generator generator){
+        return new File(stagingDir, generator.getName());
+    }
+
+    private void prepareStaging(OutputStaging staging) throws IOException{
+        staging.prepare();
+        for (Generator generator: getGenerators()){
+            File directory = getGeneratorDirectory(staging.getDirectory(), generator);
+            if (!directory.mkdirs()){
+                throw new IOException("Unable to create "+directory);
+            }
+        }
+    }
+
+    /**
+     * Moves or copies the files of every generator to the output directory of its target.
+     */
+    private void transferOutputs(ProtocInvocation invocation, File stagingDir, boolean move)
+            throws IOException{
+        for (Generator generator: getGenerators()){
+            OutputStaging staging = new OutputStaging(getGeneratorDirectory(stagingDir, generator));
+            File outputDir = getTargetDirectory(generator.getName());
+            invocation.addOutputs(generator.getName(), move ?
+                    staging.moveTo(outputDir, changedOutputs) : staging.copyTo(outputDir, changedOutputs));
+        }
+    }
+
+    /**
+     * Digest of everything that affects the files a protoc run generates, not including
+     * the output directory, so that identical runs in different modules have the same key.
+     */
+    private String getGenerationKey(ProtocInvocation invocation) throws MojoExecutionException{
+        StringBuilder key = new StringBuilder(protocVersion+"\n"+backend.getName()+"\n"+descriptorPipeline);
+        for (Generator generator: getGenerators()){
+            key.append('\n').append(generator.getArguments(new File("OUTPUT")));
+        }
+        List<File> roots = getImportRoots(invocation.getInput());
+        for (File root: roots){
+            key.append("\n-I").append(canonical(root));
+        }
+        try {
+            for (File file: invocation.getFiles()){
+                key.append('\n').append(canonical(file)).append('=').append(importScanner.getFingerprint(file, roots));
+            }
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to read proto files", e);
+        }
+        return Digests.digest(key.toString());
+    }
+
+    private File getSharedRoot(){
+        return new File(project.getBuild().getDirectory(), "protobuf-maven-plugin"+File.separator+"shared");
+    }
+
+    /**
+     * Parallel builds give every module its own copy of the session, but they
+     * all share the list of reactor projects, which lives as long as the build.
+     */
+    private GenerationCoordinator getCoordinator(){
+        Object owner = null;
+        if (session!=null){
+            owner = session.getSortedProjects()!=null ? session.getSortedProjects() : session;
+        }
+        return GenerationCoordinator.getInstance(owner);
+    }
+
+    /**
+     * Deletes shared directories of previous builds. Only this module generates into
+     * its shared root, so a directory no key of the current session points to
+     * can not be reused by another module any more.
+     */
+    private void pruneSharedRoot() throws MojoExecutionException{
+        File[] directories = getSharedRoot().listFiles();
+        if (directories == null){
+            return;
+        }
+        GenerationCoordinator coordinator = getCoordinator();
+        for (File directory: directories){
+            if (!coordinator.isKnown(directory.getName())){
+                try {
+                    FileUtils.deleteDirectory(directory);
+                } catch (IOException e) {
+                    throw new MojoExecutionException("Unable to delete "+directory, e);
+                }
+            }
+        }
+    }
+
+    private void runInvocation(ProtocInvocation invocation, File outputDir) throws MojoExecutionException{
+        if (descriptorPipeline){
+            runDescriptorPipeline(invocation, outputDir);
+        }else if (invocation.isBatch()){
+            processBatch(invocation, outputDir);
+        }else{
+            processFile(invocation.getInput(), invocation.getFiles().get(0), outputDir);
+        }
+    }
+
+    /**
+     * Parses the files once into a descriptor set and runs every generator
+     * from that descriptor set, so that protoc does not parse the files again.
+     */
+    private void runDescriptorPipeline(ProtocInvocation invocation, final File outputDir) throws MojoExecutionException{
+        final File descriptor = new File(getDescriptorDir(), invocation.getId()+".pb");
+        descriptor.getParentFile().mkdirs();
+        List<String> parseArgs = new LinkedList<String>();
+        populateIncludes(parseArgs);
+        parseArgs.add("-I" + invocation.getInput().getAbsolutePath());
+        parseArgs.add("--descriptor_set_out=" + descriptor);
+        parseArgs.add("--include_imports");
+        parseArgs.add("--include_source_info");
+        for (File file: invocation.getFiles()){
+            parseArgs.add(file.toString());
+        }
+        clearMessages(invocation.getFiles());
+        ProtocResult result = runProtoc(parseArgs, invocation);
+        synchronized (logLock){
+            getLog().info("    Parsing "+(invocation.isBatch() ?
+                    invocation.getFiles().size()+" files" : invocation.getFiles().get(0).getName()));
+            printDiagnostics(result, invocation.getInput());
+            if (!result.isSuccess() && invocation.isBatch()){
+                getLog().warn("Batch failed, processing its files one by one");
+            }
+        }
+        if (!result.isSuccess()){
+            if (invocation.isBatch()){
+                for (File file: invocation.getFiles()){
+                    runDescriptorPipeline(new ProtocInvocation(invocation.getInput(),
+                            Collections.singletonList(file)), outputDir);
+                }
+            }
+            throw new MojoExecutionException("'protoc' failed for " + invocation + describeExit(result));
+        }
+
+        final List<String> names = new ArrayList<String>();
+        URI inputUri = invocation.getInput().getAbsoluteFile().toURI();
+        for (File file: invocation.getFiles()){
+            names.add(inputUri.relativize(file.getAbsoluteFile().toURI()).getPath());
+        }
+        final ProtocInvocation parsed = invocation;
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        for (final Generator generator: getGenerators()){
+            tasks.add(new Callable<Void>() {
+                @Override
+                public Void call() throws MojoExecutionException {
+                    List<String> args = new LinkedList<String>();
+                    args.add("--descriptor_set_in=" + descriptor);
+                    args.addAll(generator.getArguments(getGeneratorDirectory(outputDir, generator)));
+                    args.addAll(names);
+                    ProtocResult result = runProtoc(args, parsed);
+                    synchronized (logLock){
+                        getLog().info("    Generating "+generator+" for "+parsed);
+                        printDiagnostics(result, parsed.getInput());
+                    }
+                    if (!result.isSuccess()){
+                        throw new MojoExecutionException("'protoc' "+generator+" generator failed for " + parsed
+                                + describeExit(result));
+                    }
+                    return null;
+                }
+            });
+        }
+        runConcurrently(tasks, Math.min(tasks.size(), parseThreads(threads)));
+    }
+
+    private List<Generator> getGenerators(){
+        List<Generator> generators = new ArrayList<Generator>();
+        if (outputTargets!=null && outputTargets.length>0){
+            for (OutputTarget target: outputTargets){
+                for (String name: target.getGenerators()){
+                    generators.add(getGenerator(name));
+                }
+            }
+            return generators;
+        }
+        if (javaOutput)
+            generators.add(Generator.builtIn("java"));
+        if (cppOutput)
+            generators.add(Generator.builtIn("cpp"));
+        if (pythonOutput)
+            generators.add(Generator.builtIn("python"));
+        if (protocPlugins!=null){
+            for (ProtocPlugin plugin: protocPlugins){
+                generators.add(Generator.plugin(plugin));
+            }
+        }
+        return generators;
+    }
+
+    /**
+     * @return the configured plugin executable, or protoc-gen-&lt;id&gt; from PATH where
+     * protoc looks when none is configured, null if it does not exist
+     */
+    private static File resolvePluginExecutable(Generator generator){
+        String executable = generator.getExecutable();
+        return ProtocVersionCache.resolveExecutable(executable!=null ? executable : "protoc-gen-"+generator.getName());
+    }
+
+    private Generator getGenerator(String name){
+        if (protocPlugins!=null){
+            for (ProtocPlugin plugin: protocPlugins){
+                if (name.equals(plugin.getId())){
+                    return Generator.plugin(plugin);
+                }
+            }
+        }
+        return Generator.builtIn(name);
+    }
+
+    private void processBatch(ProtocInvocation invocation, File outputDir) throws MojoExecutionException{
+        List<File> files = invocation.getFiles();
+        List<String> cmd = buildArguments(invocation.getInput(), files, outputDir);
+        addDescriptorSetOutput(cmd, invocation);
+        clearMessages(files);
+        ProtocResult result = runProtoc(cmd, invocation);
+        synchronized (logLock){
+            getLog().info("    Processing "+files.size()+" files");
+            printDiagnostics(result, invocation.getInput());
+            if (!result.isSuccess()){
+                getLog().warn("Batch failed, processing its files one by one");
+            }
+        }
+        if (!result.isSuccess()){
+            for (File file: files){
+                processFile(invocation.getInput(), file, outputDir);
+            }
+            throw new MojoExecutionException("'protoc' failed for a batch of " + invocation
+                    + describeExit(result));
+        }
+    }
+
+    private void processFile(File input, File file, File outputDir) throws MojoExecutionException{
+        List<String> cmd = buildArguments(input, Collections.singletonList(file), outputDir);
+        addDescriptorSetOutput(cmd, new ProtocInvocation(input, Collections.singletonList(file)));
+        clearMessages(Collections.singletonList(file));
+        ProtocResult result = runProtoc(cmd, file);
+        synchronized (logLock){
+            getLog().info("    Processing "+file.getName());
+            printDiagnostics(result, input);
+        }
+        if (!result.isSuccess()){
+            throw new MojoExecutionException("'protoc' failed for " + file + describeExit(result));
+        }
+    }
+
+    private static String describeExit(ProtocResult result){
+        if (result.isTimedOut()){
+            return ". Timed out";
+        }
+        return ". Exit code " + result.getExitCode();
+    }
+
+    private void clearMessages(List<File> files){
+        for (File file: files){
+            buildContext.removeMessages(file);
+        }
+    }
+
+    /**
+     * Passes errors and warnings that refer to a file to the build context,
+     * which shows them as markers in the IDE, and logs everything else.
+     */
+    private void printDiagnostics(ProtocResult result, File input) {
+        printDiagnostics(result, getImportRoots(input));
+    }
+
+    private void printDiagnostics(ProtocResult result, List<File> roots) {
+        for (String line: result.getErrors()) {
+            ProtocDiagnostic diagnostic = ProtocDiagnostic.parse(line);
+            File file = diagnostic==null ? null : resolveDiagnosticFile(diagnostic.getFile(), roots);
+            if (file!=null){
+                buildContext.addMessage(file, diagnostic.getLine(), diagnostic.getColumn(), diagnostic.getMessage(),
+                        diagnostic.isWarning() ? BuildContext.SEVERITY_WARNING : BuildContext.SEVERITY_ERROR, null);
+            }else if (result.isSuccess()){
+                getLog().warn("    " + line);
+            }else{
+                getLog().error("    " + line);
+            }
+        }
+    }
+
+    private File resolveDiagnosticFile(String name, List<File> roots){
+        File file = importScanner.resolve(name, roots);
+        if (file==null){
+            File direct = new File(name);
+            file = direct.isFile() ? direct : null;
+        }
+        return file;
+    }
+
+    private ProtocResult runProtoc(List<String> args, Object subject) throws MojoExecutionException{
+        try {
+            if (protocPermits!=null){
+                protocPermits.acquire();
+            }
+            try {
+                long start = BuildMetrics.now();
+                ProtocResult result = backend.execute(args);
+                metrics.recordInvocation(start);
+                return result;
+            } finally {
+                if (protocPermits!=null){
+                    protocPermits.release();
+                }
+            }
+        }catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted",e);
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to execute protoc for "+subject, e);
+        }
+    }
+
+    static int parseThreads(String threads) throws MojoExecutionException{
+        String value = threads.trim();
+        try {
+            if (value.toUpperCase().endsWith("C")){
+                float perCore = Float.parseFloat(value.substring(0, value.length()-1));
+                return Math.max(1, (int)(perCore * Runtime.getRuntime().availableProcessors()));
+            }
+            return Math.max(1, Integer.parseInt(value));
+        } catch (NumberFormatException e) {
+            throw new MojoExecutionException("Invalid threads value '"+threads+"'", e);
+        }
+    }
+
+    private ProtocBackend createBackend(String dependencyVersion) throws MojoExecutionException {
+        if ("native".equals(compilerBackend)){
+            return new NativeProtocBackend(protocCommand, protocTimeout*1000L);
+        }
+        if ("protoc-jar".equals(compilerBackend)){
+            try {
+                return new ProtocJarBackend(dependencyVersion);
+            } catch (ClassNotFoundException e) {
+                throw new MojoExecutionException("protoc-jar backend requires com.github.os72:protoc-jar in the plugin dependencies", e);
+            } catch (NoSuchMethodException e) {
+                throw new MojoExecutionException("Unsupported protoc-jar version in the plugin dependencies", e);
+            }
+        }
+        throw new MojoExecutionException("Unrecognized compiler backend: "+compilerBackend);
+    }
+
+    /**
+     * @return protoc arguments, not including the executable itself
+     */
+    private List<String> buildArguments(File input, Collection<File> files, File outputDir) throws MojoExecutionException {
+        List<String> cmd = new LinkedList<String>();
+        populateIncludes(cmd);
+        cmd.add("-I" + input.getAbsolutePath());
+        for (Generator generator: getGenerators()){
+            cmd.addAll(generator.getArguments(getGeneratorDirectory(outputDir, generator)));
+        }
+        for (File file: files){
+            cmd.add(file.toString());
+        }
+        return cmd;
     }
 
-    private Collection<String> buildCommand(File file, File outputDir) throws MojoExecutionException {
-        Collection<String> cmd = new LinkedList<String>();
-        cmd.add(protocCommand);
-        populateIncludes(cmd);
-        cmd.add("-I" + file.getParentFile().getAbsolutePath());
-        if (javaOutput)
-            cmd.add("--java_out=" + outputDir);
-        if (cppOutput)
-            cmd.add("--cpp_out=" + outputDir);
-        if (pythonOutput)
-            cmd.add("--python_out=" + outputDir);
-        cmd.add(file.toString());
-        return cmd;
-    }
-
     private void populateIncludes(Collection<String> args) throws MojoExecutionException {
         for (File include : includeDirectories) {
             if (!include.exists())
@@ -369,7 +2610,31 @@ public class RunMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * @return version of the protobuf library among the artifacts already resolved
+     * for this mojo, or null if it is not there
+     */
+    private String findResolvedProtobufVersion(){
+        Set<?> artifacts = project.getArtifacts();
+        if (artifacts!=null){
+            for (Object o: artifacts){
+                Artifact artifact = (Artifact)o;
+                if (protobufGroupId.equals(artifact.getGroupId())
+                        && protobufArtifactId.equals(artifact.getArtifactId())){
+                    return artifact.getVersion();
+                }
+            }
+        }
+        return null;
+    }
+
     private String getProtobufVersion() throws MojoExecutionException{
+        // Artifacts are already resolved for this mojo, the tree is only needed
+        // when the library is not among them, for example in a different scope
+        String resolvedVersion = findResolvedProtobufVersion();
+        if (resolvedVersion!=null){
+            return resolvedVersion;
+        }
         try {
             ArtifactFilter artifactFilter = null;
             DependencyNode node = dependencyTreeBuilder.buildDependencyTree(project,localRepository,
@@ -397,19 +2662,27 @@ public class RunMojo extends AbstractMojo {
     }
 
     private String detectProtobufVersion(String libraryVersion) throws MojoExecutionException {
+        ProtocVersionCache cache = new ProtocVersionCache(cacheProtocVersion ? getVersionCacheFile() : null);
+        String cacheKey = backend instanceof NativeProtocBackend ?
+                ProtocVersionCache.key(protocCommand) : backend.getName();
+        String cachedVersion = cache.get(cacheKey);
+        if (cachedVersion!=null){
+            getLog().debug("Using cached 'protoc' version for "+cacheKey);
+            return cachedVersion;
+        }
         try {
-            Runtime runtime = Runtime.getRuntime();
-            Process process = runtime.exec(protocVersionCommand());
-
-            if (process.waitFor() != getValidVersionExitCode(libraryVersion)) {
-                printErrorAndThrow(process);
-            } else {
-                Scanner scanner = new Scanner(process.getInputStream());
-                String[] version = scanner.nextLine().split(" ");
+            ProtocResult result = backend.execute(Collections.singletonList(VERSION_KEY));
+
+            if (result.getExitCode() != getValidVersionExitCode(libraryVersion)) {
+                printErrors(result);
+                throw new MojoExecutionException("'protoc' failed. Exit code " + result.getExitCode());
+            } else if (!result.getOutput().isEmpty()) {
+                String[] version = result.getOutput().get(0).split(" ");
+                cache.put(cacheKey, version[1]);
                 return version[1];
             }
         } catch (IOException e) {
-            throw new MojoExecutionException("Cannot execute '" + protocCommand + "'", e);
+            throw new MojoExecutionException("Cannot execute '" + backend.getName() + "'", e);
         } catch (InterruptedException e) {
             Thread.currentThread().interrupt();
         }
@@ -417,21 +2690,83 @@ public class RunMojo extends AbstractMojo {
         return null;
     }
 
-    private String[] protocVersionCommand() {
-        return new String[]{protocCommand, VERSION_KEY};
+    /**
+     * @return directories with proto files extracted from dependency jars
+     */
+    private DependencyProtoExtractor createDependencyProtoExtractor(){
+        File cache = new File(localRepository.getBasedir(),
+                ".cache"+File.separator+"protobuf-maven-plugin"+File.separator+"protos");
+        return new DependencyProtoExtractor(cache, extension);
+    }
+
+    private List<File> extractDependencyProtos() throws MojoExecutionException {
+        DependencyProtoExtractor extractor = createDependencyProtoExtractor();
+        List<File> directories = new ArrayList<File>();
+        for (Object o: project.getArtifacts()){
+            Artifact artifact = (Artifact)o;
+            File file = artifact.getFile();
+            if (file==null || !file.isFile() || !"jar".equals(artifact.getType())){
+                continue;
+            }
+            try {
+                File directory = extractor.extract(file);
+                if (directory!=null){
+                    getLog().debug("Proto files of "+artifact+" are in "+directory);
+                    directories.add(directory);
+                }
+            } catch (IOException e) {
+                throw new MojoExecutionException("Unable to extract proto files from "+artifact, e);
+            }
+        }
+        return directories;
     }
 
-    private void printErrorAndThrow(Process process, String exceptionMessage) throws MojoExecutionException {
-        Scanner scanner = new Scanner(process.getErrorStream());
-        while (scanner.hasNextLine()) {
-            getLog().error("    " + scanner.nextLine());
+    /**
+     * Resolves com.google.protobuf:protoc for the current platform and returns
+     * its executable copy from the cache.
+     */
+    private File resolveProtocExecutable(String version) throws MojoExecutionException {
+        if (!"native".equals(compilerBackend)){
+            throw new MojoExecutionException("resolveProtoc can only be used with the native compiler backend");
+        }
+        if (version==null){
+            throw new MojoExecutionException("Unable to choose a protoc version to resolve, add the "
+                    +protobufGroupId+":"+protobufArtifactId+" dependency or set protocArtifactVersion");
         }
+        String classifier = ProtocExecutableCache.getClassifier();
+        if (classifier==null){
+            throw new MojoExecutionException("protoc is not published for "+System.getProperty("os.name")
+                    +" "+System.getProperty("os.arch")+", set protocCommand instead");
+        }
+        Artifact artifact = artifactFactory.createArtifactWithClassifier(
+                PROTOC_GROUP_ID, PROTOC_ARTIFACT_ID, version, "exe", classifier);
+        try {
+            artifactResolver.resolve(artifact, remoteRepositories, localRepository);
+        } catch (ArtifactResolutionException e) {
+            throw new MojoExecutionException("Unable to resolve "+artifact, e);
+        } catch (ArtifactNotFoundException e) {
+            throw new MojoExecutionException("Unable to resolve "+artifact, e);
+        }
+        File cache = new File(localRepository.getBasedir(),
+                ".cache"+File.separator+"protobuf-maven-plugin"+File.separator+"protoc");
+        try {
+            File executable = new ProtocExecutableCache(cache).install(artifact.getFile());
+            getLog().info("Using "+artifact+" from "+executable);
+            return executable;
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to install "+artifact+" into "+cache, e);
+        }
+    }
 
-        throw new MojoExecutionException("'protoc' failed" + exceptionMessage + ". Exit code " + process.exitValue());
+    private File getVersionCacheFile() {
+        return new File(localRepository.getBasedir(),
+                ".cache"+File.separator+"protobuf-maven-plugin"+File.separator+"protoc-versions.properties");
     }
 
-    private void printErrorAndThrow(Process process) throws MojoExecutionException {
-        printErrorAndThrow(process, "");
+    private void printErrors(ProtocResult result) {
+        for (String line: result.getErrors()) {
+            getLog().error("    " + line);
+        }
     }
 
     private String traverseNode(DependencyNode node) {
@@ -0,0 +1,162 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import org.apache.maven.plugin.MojoExecutionException;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Generates sources like the run goal, then keeps watching the input and include
+ * directories. Whenever proto files change, they and the files importing them
+ * are generated again, until the build is interrupted.
+ *
+ * @goal watch
+ * @requiresDependencyResolution
+ */
+public class WatchMojo extends RunMojo {
+
+    /**
+     * Time in milliseconds to wait for further changes before generating, so that
+     * a burst of changes, like saving several files or switching branches, results
+     * in a single generation.
+     * @parameter expression="${watchDelay}" default-value="200"
+     * @required
+     */
+    private int watchDelay;
+
+    private final Map<WatchKey, Path> directories = new HashMap<WatchKey, Path>();
+
+    @Override
+    public void execute() throws MojoExecutionException {
+        super.execute();
+        if (isPomProject()) {
+            return;
+        }
+        List<File> roots = getSourceDirectories();
+        WatchService watcher = null;
+        try {
+            watcher = FileSystems.getDefault().newWatchService();
+            for (File root : roots) {
+                if (root.isDirectory()) {
+                    register(watcher, root.toPath(), null);
+                }
+            }
+            getLog().info("Watching " + roots + " for changes, press Ctrl+C to stop");
+            while (true) {
+                WatchKey key = watcher.take();
+                Set<File> changed = new LinkedHashSet<File>();
+                while (key != null) {
+                    collect(watcher, key, changed);
+                    key = watcher.poll(watchDelay, TimeUnit.MILLISECONDS);
+                }
+                if (changed.isEmpty()) {
+                    continue;
+                }
+                long start = BuildMetrics.now();
+                getLog().info("Changed: " + changed);
+                try {
+                    regenerate(changed);
+                    getLog().info("Generated in " + (BuildMetrics.now() - start) / 1000000 + " ms");
+                } catch (MojoExecutionException e) {
+                    getLog().error(e.getMessage());
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (IOException e) {
+            throw new MojoExecutionException("Unable to watch " + roots, e);
+        } finally {
+            if (watcher != null) {
+                try {
+                    watcher.close();
+                } catch (IOException e) {
+                    getLog().debug(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Registers the directory and all its subdirectories.
+     * @param found receives proto files found on the way, or null
+     */
+    private void register(final WatchService watcher, Path root, final Set<File> found) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                WatchKey key = dir.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+                directories.put(key, dir);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (found != null && isProto(file)) {
+                    found.add(file.toFile());
+                }
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+
+    private void collect(WatchService watcher, WatchKey key, Set<File> changed) throws IOException {
+        Path dir = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (dir == null) {
+                break;
+            }
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                // Events were lost, treat everything below the directory as changed
+                register(watcher, dir, changed);
+                continue;
+            }
+            Path path = dir.resolve((Path) event.context());
+            if (event.kind() == StandardWatchEventKinds.ENTRY_CREATE && Files.isDirectory(path)) {
+                register(watcher, path, changed);
+            } else if (isProto(path)) {
+                changed.add(path.toFile());
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+        }
+    }
+
+    private boolean isProto(Path path) {
+        return path.getFileName().toString().endsWith(getExtension());
+    }
+}
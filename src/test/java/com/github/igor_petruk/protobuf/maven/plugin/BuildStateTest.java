@@ -0,0 +1,84 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Map;
+
+public class BuildStateTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("state").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        TestFiles.delete(directory);
+    }
+
+    public void testSaveAndLoad() throws IOException {
+        BuildState state = new BuildState("gen", "config");
+        state.getFingerprints().put("/p/a.proto", "abc");
+        state.getUnits().add(new BuildState.Unit(Arrays.asList("/p/a.proto", "/p/b.proto"),
+                Arrays.asList("/out/A.java", "/out/a_pb2.py"), Arrays.asList("java", "python")));
+        state.getUnits().add(new BuildState.Unit(Arrays.asList("/p/c.proto"),
+                Arrays.<String>asList(), Arrays.<String>asList()));
+        File file = new File(directory, "a" + BuildState.EXTENSION);
+        state.save(file);
+
+        BuildState loaded = BuildState.load(file);
+
+        assertEquals("gen", loaded.getExecutionId());
+        assertEquals("config", loaded.getConfiguration());
+        assertEquals("abc", loaded.getFingerprints().get("/p/a.proto"));
+        assertEquals(2, loaded.getUnits().size());
+        BuildState.Unit unit = loaded.getUnits().get(0);
+        assertEquals(Arrays.asList("/p/a.proto", "/p/b.proto"), unit.getSources());
+        assertEquals(Arrays.asList("/out/A.java", "/out/a_pb2.py"), unit.getOutputs());
+        assertEquals("python", unit.getGenerator(1));
+        assertTrue(loaded.getUnits().get(1).getOutputs().isEmpty());
+        assertNull(loaded.getUnits().get(1).getGenerator(0));
+        assertEquals(3, loaded.getSources().size());
+        assertEquals(2, loaded.getOutputs().size());
+    }
+
+    public void testLoadMissingFile() {
+        assertNull(BuildState.load(new File(directory, "missing" + BuildState.EXTENSION)));
+    }
+
+    public void testLoadOthersSkipsOwnStateAndOtherFiles() throws IOException {
+        File own = new File(directory, "own" + BuildState.EXTENSION);
+        File other = new File(directory, "other" + BuildState.EXTENSION);
+        new BuildState("own", "").save(own);
+        new BuildState("other", "").save(other);
+        TestFiles.write(new File(directory, "other.fingerprint"), "x");
+
+        Map<File, BuildState> others = BuildState.loadOthers(directory, own);
+
+        assertEquals(1, others.size());
+        assertEquals("other", others.get(other).getExecutionId());
+    }
+}
@@ -0,0 +1,67 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+public class CommandLineChunkerTest extends TestCase {
+
+    public void testKeepsEveryCommandBelowTheLimit() {
+        List<String> base = Arrays.asList("protoc", "--java_out=out");
+        List<File> files = new ArrayList<File>();
+        for (int i = 0; i < 10; i++) {
+            files.add(new File("dir/file" + i + ".proto"));
+        }
+        int limit = CommandLineChunker.length(base) + 3 * 17;
+
+        List<List<File>> chunks = new CommandLineChunker(limit).chunk(base, files);
+
+        List<File> all = new ArrayList<File>();
+        for (List<File> chunk : chunks) {
+            List<String> args = new ArrayList<String>(base);
+            for (File file : chunk) {
+                args.add(file.toString());
+            }
+            assertTrue(CommandLineChunker.length(args) <= limit);
+            all.addAll(chunk);
+        }
+        assertEquals(4, chunks.size());
+        assertEquals(files, all);
+    }
+
+    public void testSingleFileAboveTheLimitGetsItsOwnChunk() {
+        List<String> base = Collections.singletonList("protoc");
+        List<File> files = Arrays.asList(new File("a-very-long-file-name.proto"), new File("b.proto"));
+
+        List<List<File>> chunks = new CommandLineChunker(10).chunk(base, files);
+
+        assertEquals(2, chunks.size());
+        assertEquals(Collections.singletonList(files.get(0)), chunks.get(0));
+    }
+
+    public void testNoFiles() {
+        assertTrue(new CommandLineChunker(100).chunk(Collections.<String>emptyList(),
+                Collections.<File>emptyList()).isEmpty());
+    }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class DependencyProtoExtractorTest extends TestCase {
+
+    private File directory;
+    private DependencyProtoExtractor extractor;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("dependency-protos").toFile();
+        extractor = new DependencyProtoExtractor(new File(directory, "cache"), ".proto");
+    }
+
+    @Override
+    protected void tearDown() {
+        TestFiles.delete(directory);
+    }
+
+    public void testExtractsProtoFiles() throws IOException {
+        File jar = writeJar(new File(directory, "a.jar"), "a.proto", "message A {}");
+
+        File extracted = extractor.extract(jar);
+
+        assertEquals("message A {}", TestFiles.read(new File(extracted, "a.proto")));
+        assertNull(extractor.extract(writeJar(new File(directory, "b.jar"), "B.class", "")));
+    }
+
+    public void testUnchangedJarIsNotHashedAgain() throws IOException {
+        File jar = writeJar(new File(directory, "a.jar"), "a.proto", "message A {}");
+        jar.setLastModified(1000000000000L);
+        File extracted = extractor.extract(jar);
+
+        long length = jar.length();
+        writeJar(jar, "b.proto", "message B {}");
+        assertEquals(length, jar.length());
+        jar.setLastModified(1000000000000L);
+        assertEquals(extracted, extractor.extract(jar));
+
+        jar.setLastModified(1000000001000L);
+        File changed = extractor.extract(jar);
+        assertFalse(extracted.equals(changed));
+        assertTrue(new File(changed, "b.proto").isFile());
+    }
+
+    private static File writeJar(File jar, String entry, String content) throws IOException {
+        ZipOutputStream out = new ZipOutputStream(new FileOutputStream(jar));
+        try {
+            ZipEntry zipEntry = new ZipEntry(entry);
+            zipEntry.setTime(1000000000000L);
+            out.putNextEntry(zipEntry);
+            out.write(content.getBytes("UTF-8"));
+            out.closeEntry();
+        } finally {
+            out.close();
+        }
+        return jar;
+    }
+}
@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+public class DirectoryGenerationCacheTest extends TestCase {
+
+    private static final String KEY = "0123456789abcdef0123456789abcdef01234567";
+
+    private File directory;
+    private DirectoryGenerationCache cache;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("generation-cache").toFile();
+        cache = new DirectoryGenerationCache(new File(directory, "cache"));
+    }
+
+    @Override
+    protected void tearDown() {
+        TestFiles.delete(directory);
+    }
+
+    public void testStoreAndRestore() throws IOException {
+        File generated = new File(directory, "generated");
+        TestFiles.write(new File(generated, "pkg/A.java"), "class A {}");
+        Map<String, String> generators = new TreeMap<String, String>();
+        generators.put("pkg/A.java", "java");
+        File archive = new File(directory, "archive.jar");
+        GeneratedSourcesArchive.write(archive, KEY, generated, generators, null);
+
+        cache.store(KEY, archive);
+        File fetched = new File(directory, "fetched.jar");
+        assertTrue(cache.fetch(KEY, fetched));
+
+        assertEquals(KEY, GeneratedSourcesArchive.readKey(fetched));
+        File restored = new File(directory, "restored");
+        List<File> changed = new ArrayList<File>();
+        assertEquals(generators, GeneratedSourcesArchive.extract(fetched, restored, changed));
+        assertEquals("class A {}", TestFiles.read(new File(restored, "pkg/A.java")));
+        assertEquals(Collections.singletonList(new File(restored, "pkg/A.java")), changed);
+    }
+
+    public void testMissingKey() throws IOException {
+        File fetched = new File(directory, "fetched.jar");
+
+        assertFalse(cache.fetch(KEY, fetched));
+        assertFalse(fetched.exists());
+    }
+
+    public void testStoringTwiceKeepsOneEntry() throws IOException {
+        File archive = TestFiles.write(new File(directory, "archive.jar"), "jar");
+
+        cache.store(KEY, archive);
+        cache.store(KEY, archive);
+
+        File[] files = new File(new File(directory, "cache"), KEY.substring(0, 2)).listFiles();
+        assertEquals(1, files.length);
+        assertEquals(KEY + ".jar", files[0].getName());
+    }
+}
@@ -0,0 +1,41 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import junit.framework.TestCase;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+public class GenerationCoordinatorTest extends TestCase {
+
+    public void testOneInstancePerSession() {
+        List<Object> session = new ArrayList<Object>();
+
+        assertSame(GenerationCoordinator.getInstance(session), GenerationCoordinator.getInstance(session));
+        assertSame(GenerationCoordinator.getInstance(null), GenerationCoordinator.getInstance(null));
+        assertNotSame(GenerationCoordinator.getInstance(session), GenerationCoordinator.getInstance(null));
+    }
+
+    public void testEqualSessionsDoNotShareInstance() {
+        Date first = new Date(1000000000000L);
+        Date second = new Date(1000000000000L);
+
+        assertNotSame(GenerationCoordinator.getInstance(first), GenerationCoordinator.getInstance(second));
+    }
+}
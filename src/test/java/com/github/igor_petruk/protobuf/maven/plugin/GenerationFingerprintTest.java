@@ -0,0 +1,86 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+
+public class GenerationFingerprintTest extends TestCase {
+
+    private File directory;
+
+    @Override
+    protected void setUp() throws IOException {
+        directory = Files.createTempDirectory("fingerprint").toFile();
+    }
+
+    @Override
+    protected void tearDown() {
+        TestFiles.delete(directory);
+    }
+
+    public void testSameInputsGiveSameFingerprint() {
+        String first = new GenerationFingerprint().add("a", "1").add("b", new String[]{"x", "y"}).get();
+        String second = new GenerationFingerprint().add("a", "1").add("b", new String[]{"x", "y"}).get();
+
+        assertEquals(first, second);
+        assertFalse(first.equals(new GenerationFingerprint().add("a", "1").add("b", new String[]{"x"}).get()));
+        assertFalse(first.equals(new GenerationFingerprint().add("a", "2").add("b", new String[]{"x", "y"}).get()));
+    }
+
+    public void testFileSizeAndTimestampChangeFingerprint() throws IOException {
+        File file = TestFiles.write(new File(directory, "a.proto"), "message A {}");
+        file.setLastModified(1000000000000L);
+        String original = new GenerationFingerprint().addFile(file).get();
+
+        file.setLastModified(1000000001000L);
+        String touched = new GenerationFingerprint().addFile(file).get();
+        TestFiles.write(file, "message A { int32 x = 1; }");
+        file.setLastModified(1000000001000L);
+        String resized = new GenerationFingerprint().addFile(file).get();
+        file.delete();
+        String missing = new GenerationFingerprint().addFile(file).get();
+
+        assertFalse(original.equals(touched));
+        assertFalse(touched.equals(resized));
+        assertFalse(resized.equals(missing));
+    }
+
+    public void testSourceMatchesFileWithSameAttributes() throws IOException {
+        File file = TestFiles.write(new File(directory, "a.proto"), "message A {}");
+        ProtoSource source = new ProtoSource(file, file.length(), file.lastModified());
+        ProtoSource changed = new ProtoSource(file, file.length(), file.lastModified() + 1000);
+
+        assertEquals(new GenerationFingerprint().addSource(source).get(),
+                new GenerationFingerprint().addSource(source).get());
+        assertFalse(new GenerationFingerprint().addSource(source).get()
+                .equals(new GenerationFingerprint().addSource(changed).get()));
+    }
+
+    public void testSaveAndLoad() throws IOException {
+        File file = new File(directory, "sub/run.fingerprint");
+        assertNull(GenerationFingerprint.load(file));
+
+        GenerationFingerprint.save(file, "abc");
+
+        assertEquals("abc", GenerationFingerprint.load(file));
+    }
+}
@@ -0,0 +1,108 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+public class ProtoImportScannerTest extends TestCase {
+
+    private File root;
+    private ProtoImportScanner scanner;
+
+    @Override
+    protected void setUp() throws IOException {
+        root = Files.createTempDirectory("imports").toFile();
+        scanner = new ProtoImportScanner();
+    }
+
+    @Override
+    protected void tearDown() {
+        TestFiles.delete(root);
+    }
+
+    public void testReadsBothQuoteStylesAndModifiers() throws IOException {
+        File file = TestFiles.write(new File(root, "a.proto"),
+                "syntax = \"proto3\";\n"
+                + "import \"b.proto\";\n"
+                + "  import public 'c.proto' ;\n"
+                + "import weak \"d/e.proto\";\n"
+                + "message A {}\n");
+
+        assertEquals(Arrays.asList("b.proto", "c.proto", "d/e.proto"), scanner.getImports(file));
+    }
+
+    public void testReadsSeveralImportsOnOneLine() throws IOException {
+        File file = TestFiles.write(new File(root, "a.proto"),
+                "syntax = \"proto3\"; import \"b.proto\"; import 'c.proto';\n");
+
+        assertEquals(Arrays.asList("b.proto", "c.proto"), scanner.getImports(file));
+    }
+
+    public void testResolvesAgainstRootsInOrder() throws IOException {
+        File first = new File(root, "first");
+        File second = new File(root, "second");
+        TestFiles.write(new File(second, "b.proto"), "");
+        File shadowed = TestFiles.write(new File(first, "c.proto"), "");
+        TestFiles.write(new File(second, "c.proto"), "");
+        List<File> roots = Arrays.asList(first, second);
+
+        assertEquals(new File(second, "b.proto"), scanner.resolve("b.proto", roots));
+        assertEquals(shadowed, scanner.resolve("c.proto", roots));
+        assertNull(scanner.resolve("google/protobuf/any.proto", roots));
+    }
+
+    public void testFingerprintChangesWithTransitiveImport() throws IOException {
+        File a = TestFiles.write(new File(root, "a.proto"), "import \"b.proto\";\n");
+        File b = TestFiles.write(new File(root, "b.proto"), "import \"c.proto\";\n");
+        File c = TestFiles.write(new File(root, "c.proto"), "message C {}\n");
+        List<File> roots = Collections.singletonList(root);
+
+        String before = scanner.getFingerprint(a, roots);
+        TestFiles.write(c, "message C { int32 x = 1; }\n");
+        String after = new ProtoImportScanner().getFingerprint(a, roots);
+
+        assertFalse(before.equals(after));
+        assertEquals(Arrays.asList("b.proto", "c.proto"),
+                Arrays.asList(scanner.getTransitiveImports(a, roots).keySet().toArray()));
+        assertEquals(b, scanner.getTransitiveImports(a, roots).get("b.proto"));
+    }
+
+    public void testGraphKeepsConfiguredPaths() throws IOException {
+        new File(root, "dir").mkdirs();
+        File input = new File(new File(root, "dir"), "..");
+        File a = TestFiles.write(new File(input, "a.proto"), "import \"b.proto\";\n");
+        File b = TestFiles.write(new File(input, "b.proto"), "");
+        Map<File, List<File>> filesByInput = new HashMap<File, List<File>>();
+        filesByInput.put(input, Collections.singletonList(a));
+
+        ImportGraph graph = ImportGraph.build(scanner, filesByInput, null);
+
+        assertEquals(a, graph.getPath(a.getCanonicalFile()));
+        assertEquals(b, graph.getPath(b.getCanonicalFile()));
+        assertEquals(2, graph.getAffectedFiles(Collections.singleton(b.getCanonicalFile())).size());
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+
+public class ProtoSourceScannerTest extends TestCase {
+
+    private Path root;
+    private Path outside;
+
+    @Override
+    protected void setUp() throws IOException {
+        root = Files.createTempDirectory("scanner-root");
+        outside = Files.createTempDirectory("scanner-outside");
+    }
+
+    @Override
+    protected void tearDown() throws IOException {
+        TestFiles.delete(root.toFile());
+        TestFiles.delete(outside.toFile());
+    }
+
+    public void testMatchesFilesInRootAndSubdirectories() throws IOException {
+        TestFiles.write(root.resolve("a.proto").toFile(), "");
+        TestFiles.write(root.resolve("sub/b.proto").toFile(), "");
+        TestFiles.write(root.resolve("sub/c.txt").toFile(), "");
+        TestFiles.write(root.resolve("skip/d.proto").toFile(), "");
+
+        List<String> found = scan(new ProtoSourceScanner(new String[]{"**/*.proto"},
+                new String[]{"skip/**"}));
+
+        assertEquals(paths("a.proto", "sub/b.proto"), found);
+    }
+
+    public void testFollowsLinkedFilesAndDirectories() throws IOException {
+        TestFiles.write(outside.resolve("linked.proto").toFile(), "");
+        TestFiles.write(outside.resolve("dir/nested.proto").toFile(), "");
+        if (!link(root.resolve("linked.proto"), outside.resolve("linked.proto"))) {
+            return;
+        }
+        link(root.resolve("dir"), outside.resolve("dir"));
+
+        List<String> found = scan(new ProtoSourceScanner(new String[]{"**/*.proto"}, null));
+
+        assertEquals(paths("dir/nested.proto", "linked.proto"), found);
+    }
+
+    public void testSkipsLinkCycles() throws IOException {
+        TestFiles.write(root.resolve("sub/a.proto").toFile(), "");
+        if (!link(root.resolve("sub/loop"), root)) {
+            return;
+        }
+
+        List<String> found = scan(new ProtoSourceScanner(new String[]{"**/*.proto"}, null));
+
+        assertEquals(paths("sub/a.proto"), found);
+    }
+
+    private List<String> scan(ProtoSourceScanner scanner) throws IOException {
+        List<String> paths = new ArrayList<String>();
+        for (ProtoSource source : scanner.scan(root.toFile())) {
+            paths.add(root.relativize(source.getFile().toPath()).toString().replace(File.separatorChar, '/'));
+        }
+        return paths;
+    }
+
+    private static List<String> paths(String... paths) {
+        List<String> list = new ArrayList<String>();
+        for (String path : paths) {
+            list.add(path);
+        }
+        return list;
+    }
+
+    /**
+     * @return false when the file system does not support symbolic links
+     */
+    private static boolean link(Path link, Path target) throws IOException {
+        try {
+            Files.createSymbolicLink(link, target);
+            return true;
+        } catch (UnsupportedOperationException e) {
+            return false;
+        }
+    }
+}
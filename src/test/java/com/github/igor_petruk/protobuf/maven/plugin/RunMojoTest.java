@@ -0,0 +1,179 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import junit.framework.TestCase;
+
+import java.io.File;
+import java.util.Collections;
+
+public class RunMojoTest extends TestCase {
+
+    private TestProject project;
+
+    @Override
+    protected void setUp() throws Exception {
+        project = new TestProject();
+    }
+
+    @Override
+    protected void tearDown() {
+        project.delete();
+    }
+
+    public void testRegenerateAfterStartingUpToDate() throws Exception {
+        if (!TestProject.isSupported()) {
+            return;
+        }
+        File proto = project.writeProto("a.proto", "message A {}\n");
+        RunMojo first = project.configure(new RunMojo());
+        TestProject.set(first, "skipUpToDate", true);
+        first.execute();
+        assertEquals("message A {}\n", TestFiles.read(project.getOutput("a.java")));
+
+        RunMojo watching = project.configure(new RunMojo());
+        TestProject.set(watching, "skipUpToDate", true);
+        watching.execute();
+        TestFiles.write(proto, "message B {}\n");
+        watching.regenerate(Collections.singleton(proto));
+
+        assertEquals("message B {}\n", TestFiles.read(project.getOutput("a.java")));
+    }
+
+    public void testSkipsUpToDateRunOfPluginFoundOnPath() throws Exception {
+        if (!TestProject.isSupported()) {
+            return;
+        }
+        project.writeProto("a.proto", "message A {}\n");
+        ProtocPlugin plugin = new ProtocPlugin();
+        TestProject.set(plugin, "id", "stub");
+        RunMojo first = project.configure(new RunMojo());
+        TestProject.set(first, "javaOutput", false);
+        TestProject.set(first, "protocPlugins", new ProtocPlugin[]{plugin});
+        TestProject.set(first, "skipUpToDate", true);
+        first.execute();
+        File output = project.getOutput("a.java");
+        long lastModified = output.lastModified();
+        TestFiles.write(output, "message Z {}\n");
+        output.setLastModified(lastModified);
+
+        RunMojo second = project.configure(new RunMojo());
+        TestProject.set(second, "javaOutput", false);
+        TestProject.set(second, "protocPlugins", new ProtocPlugin[]{plugin});
+        TestProject.set(second, "skipUpToDate", true);
+        second.execute();
+
+        assertEquals("message Z {}\n", TestFiles.read(output));
+    }
+
+    public void testDeletesOutputsOfRemovedProtoWhenInputsChange() throws Exception {
+        if (!TestProject.isSupported()) {
+            return;
+        }
+        project.writeProto("a.proto", "message A {}\n");
+        File removed = project.writeProto("file1.proto", "message F {}\n");
+        project.configure(new RunMojo()).execute();
+        assertTrue(project.getOutput("file1.java").isFile());
+
+        removed.delete();
+        File other = new File(project.getProtoDir().getParentFile(), "other");
+        TestFiles.write(new File(other, "c.proto"), "message C {}\n");
+        RunMojo second = project.configure(new RunMojo());
+        TestProject.set(second, "inputDirectories", new File[]{project.getProtoDir(), other});
+        second.execute();
+
+        assertFalse(project.getOutput("file1.java").exists());
+        assertTrue(project.getOutput("a.java").isFile());
+        assertTrue(project.getOutput("c.java").isFile());
+    }
+
+    public void testCleansOutputFolderWithoutEarlierState() throws Exception {
+        if (!TestProject.isSupported()) {
+            return;
+        }
+        project.writeProto("a.proto", "message A {}\n");
+        File stale = TestFiles.write(project.getOutput("Old.java"), "class Old {}\n");
+        RunMojo first = project.configure(new RunMojo());
+        TestProject.set(first, "cleanOutputFolder", false);
+        first.execute();
+        assertFalse(stale.exists());
+        assertTrue(project.getOutput("a.java").isFile());
+
+        File added = TestFiles.write(project.getOutput("Added.java"), "class Added {}\n");
+        RunMojo second = project.configure(new RunMojo());
+        TestProject.set(second, "cleanOutputFolder", false);
+        second.execute();
+        assertTrue(added.isFile());
+    }
+
+    public void testKeepsFilesOfOtherExecutionsAndRemovesFilesOfDeletedOnes() throws Exception {
+        if (!TestProject.isSupported()) {
+            return;
+        }
+        project.writeProto("a.proto", "message A {}\n");
+        File other = new File(project.getProtoDir().getParentFile(), "other");
+        TestFiles.write(new File(other, "b.proto"), "message B {}\n");
+        run("one", project.getProtoDir(), "one", "two");
+        run("two", other, "one", "two");
+        assertTrue(project.getOutput("a.java").isFile());
+        assertTrue(project.getOutput("b.java").isFile());
+
+        run("one", project.getProtoDir(), "one", "two");
+        assertTrue(project.getOutput("b.java").isFile());
+        assertEquals(2, BuildState.loadOthers(project.getWorkDir(), null).size());
+
+        run("one", project.getProtoDir(), "one");
+        assertTrue(project.getOutput("a.java").isFile());
+        assertFalse(project.getOutput("b.java").exists());
+        assertEquals(1, BuildState.loadOthers(project.getWorkDir(), null).size());
+    }
+
+    public void testGenerationCacheIsSharedBetweenCheckouts() throws Exception {
+        if (!TestProject.isSupported()) {
+            return;
+        }
+        TestProject checkout = new TestProject();
+        try {
+            File cache = new File(checkout.getProtoDir().getParentFile(), "cache");
+            project.writeProto("a.proto", "import 'b.proto';\nmessage A {}\n");
+            project.writeProto("b.proto", "message B {}\n");
+            checkout.writeProto("a.proto", "import 'b.proto';\nmessage A {}\n");
+            checkout.writeProto("b.proto", "message B {}\n");
+            RunMojo first = project.configure(new RunMojo());
+            TestProject.set(first, "generationCache", cache.getAbsolutePath());
+            TestProject.set(first, "updateGenerationCache", true);
+            first.execute();
+
+            checkout.breakProtoc();
+            RunMojo second = checkout.configure(new RunMojo());
+            TestProject.set(second, "generationCache", cache.getAbsolutePath());
+            second.execute();
+
+            assertEquals("message B {}\n", TestFiles.read(checkout.getOutput("b.java")));
+        } finally {
+            checkout.delete();
+        }
+    }
+
+    private void run(String executionId, File input, String... declared) throws Exception {
+        RunMojo mojo = project.configure(new RunMojo());
+        TestProject.setExecution(mojo, executionId, declared);
+        TestProject.set(mojo, "inputDirectories", new File[]{input});
+        mojo.execute();
+    }
+}
@@ -0,0 +1,218 @@
+/*
+ * Copyright 2012, by Yet another Protobuf Maven Plugin Developers
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *      http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+
+package com.github.igor_petruk.protobuf.maven.plugin;
+
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.artifact.DefaultArtifact;
+import org.apache.maven.artifact.handler.DefaultArtifactHandler;
+import org.apache.maven.artifact.versioning.VersionRange;
+import org.apache.maven.model.Build;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.monitor.logging.DefaultLog;
+import org.apache.maven.plugin.MojoExecution;
+import org.apache.maven.plugin.descriptor.MojoDescriptor;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.logging.Logger;
+import org.codehaus.plexus.logging.console.ConsoleLogger;
+import org.sonatype.plexus.build.incremental.DefaultBuildContext;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.nio.file.Files;
+import java.util.Collections;
+
+/**
+ * A throw-away project with a stub protoc, and mojos configured against it
+ * the way Maven would configure them. The stub copies every proto file it is
+ * given into a .java file of the same name, so tests can see what was generated
+ * from which content.
+ */
+final class TestProject {
+
+    static final String PROTOBUF_VERSION = "2.5.0";
+
+    private static final String PLUGIN_GROUP_ID = "com.github.igor-petruk.protobuf";
+    private static final String PLUGIN_ARTIFACT_ID = "protobuf-maven-plugin";
+
+    private static final Logger LOGGER = new ConsoleLogger(Logger.LEVEL_WARN, "test");
+
+    private final File baseDir;
+    private final File protoDir;
+    private final File protoc;
+
+    TestProject() throws IOException {
+        baseDir = Files.createTempDirectory("protobuf-test").toFile();
+        protoDir = new File(baseDir, "src/main/protobuf");
+        protoDir.mkdirs();
+        protoc = TestFiles.write(new File(baseDir, "protoc"), "#!/bin/sh\n"
+                + "if [ \"$1\" = \"--version\" ]; then\n"
+                + "    echo \"libprotoc " + PROTOBUF_VERSION + "\"\n"
+                + "    exit 0\n"
+                + "fi\n"
+                + "out=.\n"
+                + "for arg in \"$@\"; do\n"
+                + "    case \"$arg\" in\n"
+                + "        --*_out=*) out=\"${arg#*_out=}\" ;;\n"
+                + "        *.proto) name=\"${arg##*/}\"; cat \"$arg\" > \"$out/${name%.proto}.java\" ;;\n"
+                + "    esac\n"
+                + "done\n");
+        protoc.setExecutable(true);
+    }
+
+    /**
+     * Makes protoc fail for everything but the version check, so that a build
+     * only succeeds when it does not need to run protoc.
+     */
+    void breakProtoc() throws IOException {
+        TestFiles.write(protoc, "#!/bin/sh\n"
+                + "if [ \"$1\" = \"--version\" ]; then\n"
+                + "    echo \"libprotoc " + PROTOBUF_VERSION + "\"\n"
+                + "    exit 0\n"
+                + "fi\n"
+                + "exit 1\n");
+    }
+
+    /**
+     * @return false where the stub protoc can not run
+     */
+    static boolean isSupported() {
+        return File.separatorChar == '/';
+    }
+
+    File getProtoDir() {
+        return protoDir;
+    }
+
+    File getOutputDir() {
+        return new File(baseDir, "target/generated-sources");
+    }
+
+    File writeProto(String path, String content) throws IOException {
+        return TestFiles.write(new File(protoDir, path), content);
+    }
+
+    File getWorkDir() {
+        return new File(baseDir, "target/protobuf-maven-plugin");
+    }
+
+    File getOutput(String path) {
+        return new File(getOutputDir(), path);
+    }
+
+    <T extends RunMojo> T configure(T mojo) {
+        MavenProject project = new MavenProject();
+        project.setFile(new File(baseDir, "pom.xml"));
+        project.setPackaging("jar");
+        Build build = new Build();
+        build.setDirectory(new File(baseDir, "target").getAbsolutePath());
+        project.getModel().setBuild(build);
+        Artifact protobuf = new DefaultArtifact("com.google.protobuf", "protobuf-java",
+                VersionRange.createFromVersion(PROTOBUF_VERSION), Artifact.SCOPE_COMPILE, "jar", null,
+                new DefaultArtifactHandler("jar"));
+        project.setArtifacts(Collections.singleton(protobuf));
+
+        DefaultBuildContext buildContext = new DefaultBuildContext();
+        buildContext.enableLogging(LOGGER);
+
+        mojo.setLog(new DefaultLog(LOGGER));
+        set(mojo, "project", project);
+        set(mojo, "buildContext", buildContext);
+        set(mojo, "inputDirectories", new File[]{protoDir});
+        set(mojo, "includeDirectories", new File[0]);
+        set(mojo, "outputDirectory", getOutputDir());
+        set(mojo, "extension", ".proto");
+        set(mojo, "addSources", "main");
+        set(mojo, "cleanOutputFolder", true);
+        set(mojo, "javaOutput", true);
+        set(mojo, "protocCommand", protoc.getAbsolutePath());
+        set(mojo, "compilerBackend", "native");
+        set(mojo, "threads", "1");
+        set(mojo, "protocTimeout", 60);
+        set(mojo, "protobufGroupId", "com.google.protobuf");
+        set(mojo, "protobufArtifactId", "protobuf-java");
+        set(mojo, "protobufVersionValidationStrategy", "minor");
+        set(mojo, "generatedSourcesClassifier", "protobuf-sources");
+        return mojo;
+    }
+
+    /**
+     * Runs the mojo as the given execution of a pom that declares the given executions.
+     */
+    static void setExecution(RunMojo mojo, String id, String... declared) {
+        PluginDescriptor pluginDescriptor = new PluginDescriptor();
+        pluginDescriptor.setGroupId(PLUGIN_GROUP_ID);
+        pluginDescriptor.setArtifactId(PLUGIN_ARTIFACT_ID);
+        MojoDescriptor mojoDescriptor = new MojoDescriptor();
+        mojoDescriptor.setPluginDescriptor(pluginDescriptor);
+        set(mojo, "mojoExecution", new MojoExecution(mojoDescriptor, id));
+
+        Plugin plugin = new Plugin();
+        plugin.setGroupId(PLUGIN_GROUP_ID);
+        plugin.setArtifactId(PLUGIN_ARTIFACT_ID);
+        for (String executionId : declared) {
+            PluginExecution execution = new PluginExecution();
+            execution.setId(executionId);
+            plugin.addExecution(execution);
+        }
+        MavenProject project = (MavenProject) get(mojo, "project");
+        project.getModel().getBuild().addPlugin(plugin);
+    }
+
+    static Object get(Object target, String name) {
+        Class<?> type = target.getClass();
+        while (type != null) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                return field.get(target);
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Unable to read parameter " + name, e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown parameter " + name);
+    }
+
+    /**
+     * Sets a mojo parameter like Maven does, bypassing the access modifiers.
+     */
+    static void set(Object target, String name, Object value) {
+        Class<?> type = target.getClass();
+        while (type != null) {
+            try {
+                Field field = type.getDeclaredField(name);
+                field.setAccessible(true);
+                field.set(target, value);
+                return;
+            } catch (NoSuchFieldException e) {
+                type = type.getSuperclass();
+            } catch (IllegalAccessException e) {
+                throw new IllegalArgumentException("Unable to set parameter " + name, e);
+            }
+        }
+        throw new IllegalArgumentException("Unknown parameter " + name);
+    }
+
+    void delete() {
+        TestFiles.delete(baseDir);
+    }
+}